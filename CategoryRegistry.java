@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Class that keeps the categories of a closet, such as "tops" or "shoes/boots".
+// A category can have sub-categories, written as the category's path followed by a
+// slash and the sub-category's name. Paths are stored in lower case.
+//
+// Each closet has its own registry, which gives each of its categories a small id,
+// handed out from 0 up and reused once a category is merged away, so the closet can
+// keep its categories in arrays indexed by id. The categories form a tree in the order
+// they are shown: each category comes right before its sub-categories.
+//
+// A garment keeps the registry of its closet and the id of its category, so there is
+// one Category for each id. A garment that is not in a closet yet keeps an id shared
+// by every such garment with the same path (see looseId), and the closet gives it the
+// id of its own category with that path when the garment is added. Renaming a
+// category changes its path in place and keeps its id, so it is renamed for all of
+// its garments at once.
+public class CategoryRegistry {
+
+    // the categories every new closet starts with
+    public static final List<String> DEFAULT_CATEGORIES =
+            List.of("tops", "bottoms", "full body", "outerwear", "shoes", "accessories");
+    // separates a category from its sub-category
+    public static final char SEPARATOR = '/';
+
+    // the ids of the paths of garments that are not in a closet yet, and the path of
+    // each id; the array only grows, and looseCount is written after each new path
+    private static final Map<String, Integer> LOOSE_IDS = new ConcurrentHashMap<>();
+    private static String[] loosePaths = new String[16];
+    private static volatile int looseCount;
+
+    // the categories of this closet without a parent, in order
+    private final List<Category> roots;
+    // the categories of this closet by path and by id
+    private final Map<String, Category> byPath;
+    private Category[] byId;
+    // number of ids handed out so far, and the ids of merged categories that can be reused
+    private int idCount;
+    private final List<Integer> freeIds;
+
+    // A category of a closet, or the category of a garment that is not in a closet yet
+    public static final class Category {
+        private final int id;
+        private String path;
+        private Category parent;
+        private final List<Category> children = new ArrayList<>();
+
+        private Category(int id, String path, Category parent) {
+            this.id = id;
+            this.path = path;
+            this.parent = parent;
+        }
+
+        // Returns the id of the category in its closet, or -1 if it is not in a closet
+        public int getId() {
+            return id;
+        }
+
+        // Returns the path of the category, such as "tops" or "shoes/boots"
+        public String getPath() {
+            return path;
+        }
+
+        // Returns true if this is the given category or one of its sub-categories
+        public boolean isWithin(Category ancestor) {
+            for (Category category = this; category != null; category = category.parent) {
+                if (category == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Constructs a registry with no categories
+    public CategoryRegistry() {
+        roots = new ArrayList<>();
+        byPath = new HashMap<>();
+        byId = new Category[16];
+        freeIds = new ArrayList<>();
+    }
+
+    // Returns the id shared by the garments with the given path that are not in a
+    // closet yet, see Garment. Safe to call from any thread.
+    static int looseId(String path) {
+        String normalized = normalize(path);
+        Integer id = LOOSE_IDS.get(normalized);
+        return id != null ? id : addLoose(normalized);
+    }
+
+    // Returns the path of the given id of garments that are not in a closet yet
+    static String loosePath(int id) {
+        // reading the count first sees every path added before it
+        if (id >= looseCount) {
+            throw new IllegalArgumentException("Unknown id " + id);
+        }
+        return loosePaths[id];
+    }
+
+    private static synchronized int addLoose(String path) {
+        Integer id = LOOSE_IDS.get(path);
+        if (id == null) {
+            id = looseCount;
+            if (id == loosePaths.length) {
+                loosePaths = Arrays.copyOf(loosePaths, id * 2);
+            }
+            loosePaths[id] = path;
+            looseCount = id + 1;
+            LOOSE_IDS.put(path, id);
+        }
+        return id;
+    }
+
+    // Returns the path in lower case, without whitespace around each name in it
+    public static String normalize(String path) {
+        String lower = path.toLowerCase();
+        if (lower.indexOf(SEPARATOR) < 0) {
+            return lower.trim();
+        }
+        StringBuilder normalized = new StringBuilder(lower.length());
+        for (String name : lower.split(String.valueOf(SEPARATOR), -1)) {
+            if (normalized.length() > 0) {
+                normalized.append(SEPARATOR);
+            }
+            normalized.append(name.trim());
+        }
+        return normalized.toString();
+    }
+
+    // Returns true if this closet has the category with the given path
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    // Returns the id of the category with the given path, or -1 if this closet does not have it
+    public int id(String path) {
+        Category category = get(path);
+        return category == null ? -1 : category.id;
+    }
+
+    // Returns the category with the given path, or null if this closet does not have it
+    public Category get(String path) {
+        Category category = byPath.get(path);
+        return category != null ? category : byPath.get(normalize(path));
+    }
+
+    // Returns the category with the given id, or null if this closet does not have it
+    public Category get(int id) {
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+
+    // Returns this closet's category with the type of the given garment, which may be a
+    // garment of another closet or of no closet yet, or null if this closet does not have it
+    public Category get(Garment item) {
+        return item.isIn(this) ? byId[item.getCategoryId()] : byPath.get(item.getType());
+    }
+
+    // Returns the path of the category with the given id
+    public String pathOf(int id) {
+        return byId[id].path;
+    }
+
+    // Returns the paths of the categories of this closet, each before its sub-categories
+    public List<String> paths() {
+        List<String> found = new ArrayList<>();
+        for (int id : ids()) {
+            found.add(byId[id].path);
+        }
+        return found;
+    }
+
+    // Returns the ids of the categories of this closet, each before its sub-categories
+    public int[] ids() {
+        List<Integer> found = new ArrayList<>();
+        for (Category root : roots) {
+            collect(root, found);
+        }
+        return toArray(found);
+    }
+
+    // Returns the id of the given category followed by the ids of its sub-categories.
+    // Throws an IllegalArgumentException if this closet does not have the category.
+    public int[] subtree(String path) {
+        Category category = get(path);
+        if (category == null) {
+            throw new IllegalArgumentException("Unknown type " + path);
+        }
+        List<Integer> found = new ArrayList<>();
+        collect(category, found);
+        return toArray(found);
+    }
+
+    // Adds the category with the given path, and the categories it is inside of if this
+    // closet does not have them yet. Returns the ids of the categories added.
+    // Throws an IllegalArgumentException if the path is not valid or already added.
+    public List<Integer> add(String path) {
+        String normalized = checkPath(path);
+        if (contains(normalized)) {
+            throw new IllegalArgumentException("There is already a category named " + normalized);
+        }
+        List<Integer> added = new ArrayList<>();
+        categoryFor(normalized, added);
+        return added;
+    }
+
+    // Removes every category of this closet
+    public void clear() {
+        roots.clear();
+        byPath.clear();
+        Arrays.fill(byId, null);
+        idCount = 0;
+        freeIds.clear();
+    }
+
+    // Returns where moving the category at from to the path to would put the category
+    // and each of its sub-categories, without moving anything: the id of each of them
+    // mapped to the id of the category it would be merged into, or to its own id if it
+    // would be moved and keep its id, in order.
+    // Throws an IllegalArgumentException if the move is not possible.
+    public Map<Integer, Integer> plan(String from, String to) {
+        String source = normalize(from);
+        String target = checkPath(to);
+        Category category = get(source);
+        if (category == null) {
+            throw new IllegalArgumentException("Unknown type " + from);
+        }
+        if (target.equals(source) || target.startsWith(source + SEPARATOR)) {
+            throw new IllegalArgumentException("A category cannot be moved inside itself");
+        }
+        Map<Integer, Integer> moves = new LinkedHashMap<>();
+        plan(category, target, category, moves);
+        return moves;
+    }
+
+    // Plans the move of the category to the given path, see plan(String, String).
+    // Categories inside the one being moved are moved too, so they are never merged into.
+    private void plan(Category category, String path, Category moved, Map<Integer, Integer> moves) {
+        Category existing = byPath.get(path);
+        if (existing == null || existing.isWithin(moved)) {
+            List<Integer> kept = new ArrayList<>();
+            collect(category, kept);
+            for (int id : kept) {
+                moves.put(id, id);
+            }
+            return;
+        }
+        moves.put(category.id, existing.id);
+        for (Category child : category.children) {
+            plan(child, existing.path + child.path.substring(category.path.length()), moved, moves);
+        }
+    }
+
+    // Moves the category at from, with its sub-categories, to the path to.
+    // If this closet has no category at to, the category is renamed and keeps its id
+    // and, if its parent stays the same, its place. Otherwise it is merged into that
+    // category: each of its sub-categories is merged into the sub-category of the same
+    // name, or moved there if there is none. Categories merged away free their ids.
+    // Returns the ids of the categories added by the move.
+    // Throws an IllegalArgumentException if the move is not possible.
+    public List<Integer> move(String from, String to) {
+        Map<Integer, Integer> moves = plan(from, to);
+        Category source = get(from);
+        String target = normalize(to);
+        List<Integer> added = new ArrayList<>();
+        if (moves.get(source.id) != source.id) {
+            merge(source, byId[moves.get(source.id)], moves);
+            return added;
+        }
+        int separator = target.lastIndexOf(SEPARATOR);
+        Category parent = separator < 0 ? null : categoryFor(target.substring(0, separator), added);
+        if (parent != source.parent) {
+            siblings(source.parent).remove(source);
+            siblings(parent).add(source);
+            source.parent = parent;
+        }
+        rename(source, target);
+        return added;
+    }
+
+    // Merges the source category into the target category as planned in moves
+    private void merge(Category source, Category target, Map<Integer, Integer> moves) {
+        siblings(source.parent).remove(source);
+        byPath.remove(source.path, source);
+        byId[source.id] = null;
+        freeIds.add(source.id);
+        for (Category child : new ArrayList<>(source.children)) {
+            String childPath = target.path + child.path.substring(source.path.length());
+            int into = moves.get(child.id);
+            if (into != child.id) {
+                merge(child, byId[into], moves);
+            } else {
+                target.children.add(child);
+                child.parent = target;
+                rename(child, childPath);
+            }
+        }
+    }
+
+    // Gives the category the given path, and its sub-categories the same paths under it
+    private void rename(Category category, String path) {
+        List<Integer> ids = new ArrayList<>();
+        collect(category, ids);
+        String from = category.path;
+        for (int id : ids) {
+            byPath.remove(byId[id].path, byId[id]);
+        }
+        for (int id : ids) {
+            byId[id].path = path + byId[id].path.substring(from.length());
+            byPath.put(byId[id].path, byId[id]);
+        }
+    }
+
+    // Returns the category of the given path, adding it and the categories it is
+    // inside of if they are missing, and listing the ids of the categories added
+    private Category categoryFor(String path, List<Integer> added) {
+        Category existing = byPath.get(path);
+        if (existing != null) {
+            return existing;
+        }
+        int separator = path.lastIndexOf(SEPARATOR);
+        Category parent = separator < 0 ? null : categoryFor(path.substring(0, separator), added);
+        int id;
+        if (!freeIds.isEmpty()) {
+            id = freeIds.remove(freeIds.size() - 1);
+        } else {
+            id = idCount++;
+            if (id == byId.length) {
+                byId = Arrays.copyOf(byId, id * 2);
+            }
+        }
+        Category category = new Category(id, path, parent);
+        siblings(parent).add(category);
+        byPath.put(path, category);
+        byId[id] = category;
+        added.add(id);
+        return category;
+    }
+
+    private List<Category> siblings(Category parent) {
+        return parent == null ? roots : parent.children;
+    }
+
+    private static void collect(Category category, List<Integer> found) {
+        found.add(category.id);
+        for (Category child : category.children) {
+            collect(child, found);
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    // Returns the normalized path, or throws an IllegalArgumentException if it has an
+    // empty name in it
+    private static String checkPath(String path) {
+        String normalized = normalize(path);
+        for (String name : normalized.split(String.valueOf(SEPARATOR), -1)) {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Category names cannot be empty");
+            }
+        }
+        return normalized;
+    }
+}
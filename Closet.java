@@ -1,30 +1,128 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Consumer;
 
 // Class representing a closet
 public class Closet {
 
-    private final Scanner console = new Scanner(System.in);
-    public Map<String, TreeSet<Garment>> closet;
+    // number of items listed with the closet statistics
+    private static final int WORST_PRICE_PER_WEAR_COUNT = 5;
+    // number of outfits suggested at a time
+    private static final int OUTFIT_COUNT = 5;
+    // number of recent changes shown to the user
+    private static final int RECENT_CHANGE_COUNT = 20;
+    // longest time wears are counted over by month or by week, in years and in days
+    private static final int MAX_COUNTED_YEARS = 100;
+    private static final long MAX_COUNTED_DAYS = MAX_COUNTED_YEARS * 366L;
+    // sorts after every unworn garment and before every worn one
+    private static final Garment FIRST_WORN = Garment.wornFrom(Long.MIN_VALUE);
+
+    private final CommandReader console;
+    // the categories of the closet, such as "tops" or "shoes/boots"
+    private final CategoryRegistry categories;
+    // the garments of each category, indexed by category id
+    private Section[] sections;
+    // index of the words in the names and notes of every garment, or null until the
+    // first search, see searchIndex()
+    private SearchIndex searchIndex;
     private final String userName;
-    private double totalValue;
+    // counts and values kept up to date as the closet changes, or null until they are
+    // first asked for, see analytics()
+    private ClosetAnalytics analytics;
+    // saves changes to disk, or null if the closet is only kept in memory
+    private final ClosetJournal journal;
+    // recent changes, which can be undone and redone
+    private final ClosetHistory history;
+    // garments loaded by ClosetJournal that have not been sorted into the closet yet,
+    // and the loaded garments that were removed or replaced afterwards
+    private Map<Integer, List<Garment>> restored;
+    private Set<Garment> dropped;
+    // versions of the closet that are open, see Version
+    private final List<Version> versions = new ArrayList<>();
+
+    // The garments of one category.
+    // Garments still as they were in the snapshot the closet was opened from stay in
+    // the file (see ClosetSnapshot.StoredGarments) until they are changed or removed.
+    // The others are kept in memory. A name is only ever in one of the two.
+    private static class Section {
+        private final TreeSet<Garment> items = new TreeSet<>();
+        // case-insensitive name index, kept in step with items
+        private final Map<String, Garment> names = new HashMap<>();
+        // the garments still in the snapshot file, or null if there are none
+        private ClosetSnapshot.StoredGarments stored;
+        // lower case names of the garments removed from the category, and of those added
+        // back after being removed, with the time of the last removal or re-add
+        // (milliseconds since 01/01/1970), so ClosetSync can tell which came last
+        private final Map<String, Long> removals = new HashMap<>();
+
+        // Returns every garment of the category in order
+        SortedSet<Garment> all() {
+            return stored == null ? items : new MergedGarments(items, stored);
+        }
+
+        // Returns the garment with the given lower case name, or null if there is none
+        Garment find(String key) {
+            Garment item = names.get(key);
+            if (item == null && stored != null) {
+                item = stored.find(key);
+            }
+            return item;
+        }
+
+        // Moves the given garment out of the snapshot file into memory, if it is still
+        // there, so it can be changed or removed
+        void keep(Garment item) {
+            if (stored != null && stored.take(item)) {
+                items.add(item);
+                names.put(item.getName().toLowerCase(), item);
+            }
+        }
+
+        boolean contains(Garment item) {
+            return items.contains(item) || stored != null && stored.contains(item);
+        }
 
+        int size() {
+            return stored == null ? items.size() : items.size() + stored.size();
+        }
+    }
+
+    // Constructs a closet that is only kept in memory and reads from the keyboard
     public Closet(String userName) {
+        this(userName, null, CommandReader.forStandardInput());
+    }
+
+    // Constructs a closet that is loaded from and saved to the given journal
+    // and reads the user's commands from the given reader
+    public Closet(String userName, ClosetJournal journal, CommandReader console) {
         this.userName = userName;
-        totalValue = 0;
-        closet = new TreeMap<>();
-        closet.put("tops", new TreeSet<>());
-        closet.put("bottoms", new TreeSet<>());
-        closet.put("full body", new TreeSet<>());
-        closet.put("outerwear", new TreeSet<>());
-        closet.put("shoes", new TreeSet<>());
-        closet.put("accessories", new TreeSet<>());
+        this.journal = journal;
+        this.console = console;
+        categories = new CategoryRegistry();
+        sections = new Section[0];
+        for (String type : CategoryRegistry.DEFAULT_CATEGORIES) {
+            addSections(categories.add(type));
+        }
+        history = new ClosetHistory();
+        if (journal != null) {
+            journal.load(this);
+        }
     }
 
     // Adds a new garment to the closet
     public void add() {
         System.out.println("Please select the type of garment you would like to add:");
         String type = typeSelection();
-        while (!closet.containsKey(type)) {
+        while (!categories.contains(type)) {
             incorrectTypeSelection();
             type = typeSelection();
         }
@@ -38,27 +136,22 @@ public class Closet {
         System.out.println("Please enter the price of this item. " +
                 "Please type a valid number value (decimals accepted).");
         System.out.print("Price: ");
-        double cost = console.nextDouble();
-        console.nextLine();
-        totalValue += cost;
+        double cost = readPrice();
         System.out.println("Please write any notes you have about the item. Press enter when you are done.");
         System.out.print("Notes: ");
         String notes = console.nextLine();
 
-        Garment newItem = new Garment(name, type, cost, notes);
-
-        closet.get(type).add(newItem);
+        addGarment(new Garment(name, type, cost, notes));
         System.out.println("Success. Item has been added to " + userName + "'s closet.");
         System.out.print("Press Enter to return to the main window.");
         console.nextLine();
-        mainWindow();
     }
 
     // Removes a garment from the closet
     public void remove() {
         System.out.println("Please select the type of garment you would like to remove:");
         String type = typeSelection();
-        while(!closet.containsKey(type)) {
+        while(!categories.contains(type)) {
             incorrectTypeSelection();
             type = typeSelection();
         }
@@ -71,17 +164,14 @@ public class Closet {
         while(item == null) {
            name = nameNotFound();
            if (name == null) {
-               mainWindow();
-           } else {
-               item = findGarment(type, name);
+               return;
            }
+           item = findGarment(type, name);
         }
-        totalValue -= item.getCost();
-        closet.get(type).remove(item);
+        removeGarment(type, item);
         System.out.println("Success. Item has been removed from");
         System.out.print("Press Enter to return to the main window.");
         console.nextLine();
-        mainWindow();
     }
 
     // Logs a new instance of a garment being worn. Updates the number of times
@@ -89,7 +179,7 @@ public class Closet {
     public void logWear() {
         System.out.println("Please select the type of garment you would like to log.");
         String type = typeSelection();
-        while(!closet.containsKey(type)) {
+        while(!categories.contains(type)) {
             incorrectTypeSelection();
             type = typeSelection();
         }
@@ -101,30 +191,28 @@ public class Closet {
         while(item == null) {
             name = nameNotFound();
             if (name == null) {
-                mainWindow();
-            } else {
-                item = findGarment(type, name);
+                return;
             }
+            item = findGarment(type, name);
         }
 
         System.out.println("Please enter the date in which this item was last worn, " +
                 "following the format MO/DA/YEAR");
-        System.out.print("Date: ");
-        String date = console.nextLine();
-        item.increaseWear(date);
+        wearGarment(type, item, readDate());
         System.out.println("Success. Item has been logged.");
         System.out.print("Press Enter to return to the main window.");
         console.nextLine();
-        mainWindow();
     }
 
     // Allows the user to search for a garment within their closet.
-    // The user can either search by name or by notes.
-    // Prints the items within the selected category that contain the inputted keyword.
+    // The user can either search by name or by notes, within one category or all of them,
+    // and can either match the keyword anywhere or only at the start of a word.
+    // Prints the items that contain the inputted keyword.
     public void search() {
         System.out.println("Please select the type of garment you would like to search.");
+        System.out.println("Type 'All' to search every category.");
         String type = typeSelection();
-        while(!closet.containsKey(type)) {
+        while(!categories.contains(type) && !type.equals("all")) {
             incorrectTypeSelection();
             type = typeSelection();
         }
@@ -132,44 +220,242 @@ public class Closet {
         System.out.println("Choose how you would like to search: ");
         System.out.println("1) By name");
         System.out.println("2) By notes");
+        System.out.println("3) By the start of a word in the name");
+        System.out.println("4) By the start of a word in the notes");
+        System.out.print("Enter your choice: ");
+        int choice = readChoice(4);
+        if (type.equals("all")) {
+            type = null;
+        }
+        if (choice == 1 || choice == 3) {
+            searchNames(type, choice == 3);
+        } else {
+            searchNotes(type, choice == 4);
+        }
+        System.out.print("Press Enter when you are ready to return to the main window.");
+        console.nextLine();
+    }
+
+    // Allows the user to add, rename or merge the categories of their closet.
+    // A sub-category is written after its category and a slash, such as shoes/boots.
+    public void manageCategories() {
+        System.out.println("Please choose what you would like to do with your categories.");
+        System.out.println("1) Add a category");
+        System.out.println("2) Rename a category");
+        System.out.println("3) Merge a category into another");
         System.out.print("Enter your choice: ");
-        int choice = console.nextInt();
-        if (choice > 2 || choice < 1) {
-            validSelection(2);
+        int choice = readChoice(3);
+        try {
+            if (choice == 1) {
+                System.out.println("Please write the name of the new category. To add a sub-category, " +
+                        "write its category and a slash first, for example shoes/boots.");
+                System.out.print("Name: ");
+                addCategory(console.nextLine());
+                System.out.println("Success. The category has been added.");
+            } else {
+                System.out.println("Please select the category you would like to " +
+                        (choice == 2 ? "rename." : "merge into another."));
+                String from = typeSelection();
+                while (!categories.contains(from)) {
+                    incorrectTypeSelection();
+                    from = typeSelection();
+                }
+                String to;
+                if (choice == 2) {
+                    System.out.println("Please write the new name of the category.");
+                    System.out.print("Name: ");
+                    to = console.nextLine();
+                    if (categories.contains(to)) {
+                        throw new IllegalArgumentException("There is already a category named " +
+                                CategoryRegistry.normalize(to) + ". Merge the categories instead.");
+                    }
+                } else {
+                    System.out.println("Please select the category to merge it into.");
+                    to = typeSelection();
+                    while (!categories.contains(to)) {
+                        incorrectTypeSelection();
+                        to = typeSelection();
+                    }
+                }
+                moveCategory(from, to);
+                System.out.println("Success. The category has been " + (choice == 2 ? "renamed." : "merged."));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Sorry, the categories could not be changed: " + e.getMessage());
         }
+        System.out.print("Press Enter to return to the main window.");
+        console.nextLine();
+    }
+
+    // Allows the user to undo or redo their recent changes, see them, or display the
+    // closet as it was at the end of an earlier day. See ClosetHistory.
+    public void changeHistory() {
+        System.out.println("Please choose what you would like to do.");
+        System.out.println("1) Undo the last change");
+        System.out.println("2) Redo the last undone change");
+        System.out.println("3) Display recent changes");
+        System.out.println("4) Display all items within the closet as they were at the end of a day");
+        System.out.print("Enter your choice: ");
+        int choice = readChoice(4);
         if (choice == 1) {
-            searchNames(type);
+            ClosetHistory.Change change = undoChange();
+            System.out.println(change == null ? "There is nothing to undo." : "Undone: " + change.describe());
         } else if (choice == 2) {
-            searchNotes(type);
+            ClosetHistory.Change change = redoChange();
+            System.out.println(change == null ? "There is nothing to redo." : "Redone: " + change.describe());
+        } else if (choice == 3) {
+            List<ClosetHistory.Change> changes = recentChanges(RECENT_CHANGE_COUNT);
+            if (changes.isEmpty()) {
+                System.out.println("No changes have been made yet.");
+            }
+            for (ClosetHistory.Change change : changes) {
+                System.out.println(change.getTimeText() + " | " + change.describe());
+            }
+        } else {
+            System.out.println("Please enter the date, following the format MO/DA/YEAR");
+            long day = readDate();
+            long endOfDay = LocalDate.ofEpochDay(day + 1).atStartOfDay(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+            List<ClosetHistory.Change> oldest = recentChanges(ClosetHistory.MAX_CHANGES);
+            int changes = changesSince(endOfDay - 1);
+            if (changes > 0 && changes == oldest.size()) {
+                System.out.println("NOTE: Only the last " + ClosetHistory.MAX_CHANGES + " changes are kept, "
+                        + "and changes to categories or syncs cannot be undone, so the closet is shown "
+                        + "as it was before the oldest change kept, made " + oldest.get(changes - 1).getTimeText() + ".");
+            }
+            TableRenderer table = TableRenderer.forConsole();
+            try (Version version = versionBefore(changes)) {
+                version.printCloset(table);
+            }
+            table.flush();
         }
-        System.out.print("Press Enter when you are ready to return to the main window.");
+        System.out.print("Press Enter to return to the main window.");
+        console.nextLine();
+    }
+
+    // Looks for items that were likely entered more than once and offers to merge each
+    // group of them into one item. See DuplicateFinder.
+    public void findDuplicates() {
+        System.out.println("Looking for items that may have been entered more than once...");
+        List<DuplicateFinder.Group> groups = new DuplicateFinder(this).find();
+        if (groups.isEmpty()) {
+            System.out.println("No likely duplicates were found.");
+        } else {
+            System.out.println("Found " + groups.size() + (groups.size() == 1 ? " group" : " groups")
+                    + " of items that may be duplicates.");
+        }
+        int merged = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            DuplicateFinder.Group group = groups.get(i);
+            System.out.println(" ");
+            System.out.println("Group " + (i + 1) + " of " + groups.size() + ":");
+            TableRenderer table = TableRenderer.forConsole();
+            table.header();
+            for (Garment item : group.getItems()) {
+                table.row(item);
+            }
+            table.line("They would be merged into:");
+            table.row(group.getMerged());
+            table.flush();
+            System.out.println("1) Merge these items");
+            System.out.println("2) Keep them apart");
+            System.out.println("3) Stop looking at duplicates");
+            System.out.print("Enter your choice: ");
+            int choice = readChoice(3);
+            if (choice == 1) {
+                // earlier merges can have removed or replaced items of this group
+                if (!inCloset(group.getItems())) {
+                    System.out.println("Some of these items are no longer in the closet, so they were not merged.");
+                } else if (mergeGarments(group.getItems(), group.getMerged())) {
+                    merged++;
+                } else {
+                    System.out.println("The closet already holds the merged item, so these items were not merged.");
+                }
+            } else if (choice == 3) {
+                break;
+            }
+        }
+        if (merged > 0) {
+            System.out.println("Success. " + merged + (merged == 1 ? " group has" : " groups have") + " been merged.");
+        }
+        System.out.print("Press Enter to return to the main window.");
+        console.nextLine();
+    }
+
+    // Returns true if every one of the given garments is still in the closet, and is the
+    // one found by its type and name
+    private boolean inCloset(List<Garment> items) {
+        for (Garment item : items) {
+            if (!hasCategory(item.getType()) || findGarment(item.getType(), item.getName()) != item) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Imports many garments at once from a CSV or JSON lines file and reports
+    // how many were imported. See ClosetImporter for the file formats.
+    public void importItems() {
+        System.out.println("Please enter the path of the file you would like to import.");
+        System.out.println("CSV files should have one item per line written as: type,name,price,notes");
+        System.out.println("JSON lines files should have one object per line with " +
+                "\"type\", \"name\", \"price\" and \"notes\".");
+        System.out.print("File: ");
+        String path = console.nextLine().trim();
+        ClosetImporter importer = new ClosetImporter(this);
+        try {
+            importer.importFile(Paths.get(path));
+            importer.printReport();
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Sorry, the file could not be read: " + e.getMessage());
+        }
+        System.out.print("Press Enter to return to the main window.");
         console.nextLine();
-        mainWindow();
     }
 
-    // Prompts the user to select which of the 4 display options they would like to select.
+    // Prompts the user to select which of the 11 display options they would like to select.
     // 1) Prints all unworn garments in a single category
     // 2) Prints the garments worn least recently (not unworn) within a single category
     // 3) Prints all the garments within a single category
     // 4) Prints every garment inside the closet
+    // 5) Saves every garment inside the closet to a file
+    // 6) Prints the statistics of each category and the items with the worst price per wear
+    // 7) Prints the garments within a single category last worn between two dates
+    // 8) Prints the garments within a single category not worn since a date
+    // 9) Prints how many times a garment, or a whole category, was worn each month or week
+    // 10) Suggests outfits made from garments that have not been worn for a while
+    // 11) Prints how long closet operations have taken, see ClosetMetrics
     public void display() {
         System.out.println("Please choose how you would like to display the items within your closet.");
         System.out.println("1) Display unworn items within a category");
         System.out.println("2) Display the items worn least recently within a category");
         System.out.println("3) Display all items within a category");
         System.out.println("4) Display all items within the closet");
+        System.out.println("5) Save all items within the closet to a file");
+        System.out.println("6) Display closet statistics");
+        System.out.println("7) Display items last worn between two dates within a category");
+        System.out.println("8) Display items not worn since a date within a category");
+        System.out.println("9) Display how often items were worn within a category");
+        System.out.println("10) Suggest outfits");
+        System.out.println("11) Display performance metrics");
         System.out.print("Enter your choice: ");
-        int choice = console.nextInt();
-        console.nextLine();
-        if (choice > 4 || choice <= 0) {
-            validSelection(4);
-        }
+        int choice = readChoice(11);
 
         if (choice == 4) {
-            printCloset();
+            TableRenderer table = TableRenderer.forConsole();
+            printCloset(table);
+            table.flush();
+        } else if (choice == 5) {
+            saveCloset();
+        } else if (choice == 6) {
+            printStatistics();
+        } else if (choice == 10) {
+            printOutfits();
+        } else if (choice == 11) {
+            printMetrics();
         } else {
             String type = typeSelection();
-            while(!closet.containsKey(type)) {
+            while(!categories.contains(type)) {
                 incorrectTypeSelection();
                 type = typeSelection();
             }
@@ -178,149 +464,337 @@ public class Closet {
             } else if (choice == 2) {
                 printLeastRecentFive(type);
             } else if (choice == 3) {
-                printCategory(type, false);
+                ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.DISPLAY);
+                try {
+                    TableRenderer table = TableRenderer.forConsole();
+                    printCategory(table, type);
+                    table.flush();
+                } finally {
+                    if (timer != null) {
+                        timer.stop();
+                    }
+                }
+            } else if (choice == 7) {
+                System.out.println("Please enter the first date, following the format MO/DA/YEAR");
+                long first = readDate();
+                System.out.println("Please enter the last date, following the format MO/DA/YEAR");
+                long last = readDate();
+                printGarments(wornBetween(type, first, last),
+                        "No items of this category were last worn between those dates.");
+            } else if (choice == 8) {
+                System.out.println("Please enter the date, following the format MO/DA/YEAR");
+                printGarments(notWornSince(type, readDate()),
+                        "Every item of this category has been worn since that date.");
+            } else if (choice == 9) {
+                printWearCounts(type);
             }
         }
         System.out.print("Press Enter when you are ready to return to the main window.");
         console.nextLine();
-        mainWindow();
-    }
-
-    // Prints the top of the table
-    private void printHeader() {
-        System.out.printf("%-20s | %-12s | %-14s | %-10s | %-10s | %-50s\n",
-                "Name", "Category", "Price Per Wear", "Times Worn", "Last Worn", "Notes");
-        for (int i = 131; i > 0; i--) {
-            System.out.print("-");
-        }
-        System.out.println(" ");
     }
 
-    // Searches for and prints garments with a user generated name of a given type.
-    private void searchNames(String type) {
+    // Searches for and prints garments with a user generated name of a given type,
+    // or of every type if the type is null.
+    private void searchNames(String type, boolean wordStart) {
         System.out.println("Please enter the name you would like to search for.");
         System.out.println("Not case sensitive.");
         System.out.print("Name:");
-        console.nextLine();
         String name = console.nextLine();
-        name = name.toLowerCase();
-
-        boolean found = false;
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        for (Garment item : closetSection) {
-            String itemName = item.getName().toLowerCase();
-            if (itemName.contains(name)) {
-                if (!found) {
-                    printHeader();
-                }
-                found = true;
-                item.printGarment();
-            }
-        }
-        if (!found) {
-            System.out.println("Sorry, no items found with the inputted name.");
-        }
+        printSearch(searchGarments(name, false, wordStart, type),
+                "Sorry, no items found with the inputted name.");
     }
 
     // Searches for and prints garments with a user generated
-    // keyword within its notes of a given type
-    private void searchNotes(String type) {
+    // keyword within its notes of a given type, or of every type if the type is null.
+    private void searchNotes(String type, boolean wordStart) {
         System.out.println("Please enter the keyword you would like to search for within the notes.");
         System.out.println("Not case sensitive.");
         System.out.print("Keyword:");
-        console.nextLine();
         String keyword = console.nextLine();
-        keyword = keyword.toLowerCase();
+        printSearch(searchGarments(keyword, true, wordStart, type),
+                "Sorry, no notes found with the inputted keyword.");
+    }
 
-        boolean found = false;
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        for (Garment item : closetSection) {
-            String itemNotes = item.getNotes().toLowerCase();
-            if (itemNotes.contains(keyword)) {
-                if (!found) {
-                    printHeader();
-                }
-                found = true;
-                item.printGarment();
+    // Returns the garments of the given type (or of every type if the type is null) whose
+    // name or notes contain the given text, in the closet's order
+    List<Garment> searchGarments(String text, boolean inNotes, boolean wordStart, String type) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.SEARCH);
+        try {
+            return searchIndex().search(text, inNotes, wordStart, type);
+        } finally {
+            if (timer != null) {
+                timer.stop();
             }
         }
-        if (!found) {
-            System.out.println("Sorry, no notes found with the inputted keyword.");
+    }
+
+    // Prints the garments found by a search, or the given message if none were found
+    private void printSearch(List<Garment> found, String notFound) {
+        TableRenderer table = TableRenderer.forConsole();
+        if (found.isEmpty()) {
+            table.line(notFound);
+        } else {
+            table.header();
+            for (Garment item : found) {
+                table.row(item);
+            }
         }
+        table.flush();
     }
 
-    // Prints all the garments within the given category
-    // If the category is empty and the user is not printing their entire closet,
-    // this will print a message stating that there are no items of that type
-    private void printCategory(String type, boolean entireCloset) {
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        if (!entireCloset && closetSection.isEmpty()) {
-            System.out.println("There are no items of the type: " + type + " in your closet.");
+    // Prints all the garments within the given category and its sub-categories
+    // If there are none, this will print a message stating that there are no items of that type
+    private void printCategory(TableRenderer table, String type) {
+        if (isEmpty(type)) {
+            table.line("There are no items of the type: " + type + " in your closet.");
         } else {
-            if (!entireCloset) {
-                printHeader();
+            table.header();
+            for (int id : categories.subtree(type)) {
+                for (Garment item : sections[id].all()) {
+                    table.row(item);
+                }
+            }
+        }
+    }
+
+    // Prints every garment within the closet, separated by the type of garment.
+    // Package-private so the JMH benchmarks can render the closet into a counter.
+    void printCloset(TableRenderer table) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.DISPLAY);
+        try {
+            table.header();
+            for (int id : categories.ids()) {
+                for (Garment item : sections[id].all()) {
+                    table.row(item);
+                }
             }
-            for (Garment item : closetSection) {
-                item.printGarment();
+            table.line(" ");
+            table.line("Total closet value: $" + getTotalValue());
+        } finally {
+            if (timer != null) {
+                timer.stop();
             }
         }
     }
 
-    // Prints every garment within the closet, separated by the type of garment
-    private void printCloset() {
-        printHeader();
-        printCategory("tops", true);
-        printCategory("bottoms", true);
-        printCategory("full body", true);
-        printCategory("outerwear", true);
-        printCategory("shoes", true);
-        printCategory("accessories", true);
-        System.out.println(" ");
-        System.out.println("Total closet value: $" + totalValue);
+    // Prints the operation counts, latencies and allocations measured so far
+    private void printMetrics() {
+        if (!ClosetMetrics.ENABLED) {
+            System.out.println("Metrics are turned off. Start the program with -Dcloset.metrics=true to turn them on.");
+            return;
+        }
+        System.out.print(ClosetMetrics.toText());
+    }
+
+    // Prints the number of items, value and price per wear of each category and of the
+    // whole closet, followed by the worn items with the highest price per wear
+    private void printStatistics() {
+        TableRenderer table = TableRenderer.forConsole();
+        table.line(String.format("%-12s | %-8s | %-8s | %-8s | %-14s | %-14s | %-14s",
+                "Category", "Items", "Worn", "Unworn", "Value", "Avg PPW", "Median PPW"));
+        table.line("-".repeat(98));
+        for (String type : categories.paths()) {
+            printStatisticsRow(table, type, type);
+        }
+        printStatisticsRow(table, "total", null);
+        table.line(" ");
+        ClosetAnalytics analytics = analytics();
+        List<Garment> worst = analytics.getWorstPricePerWear(null, WORST_PRICE_PER_WEAR_COUNT);
+        if (!worst.isEmpty()) {
+            table.line("Worn items with the highest price per wear:");
+            table.header();
+            for (Garment item : worst) {
+                table.row(item);
+            }
+        }
+        table.flush();
+    }
+
+    // Prints the statistics of the given type, or of the whole closet if the type is null
+    private void printStatisticsRow(TableRenderer table, String label, String type) {
+        ClosetAnalytics analytics = analytics();
+        table.line(String.format("%-12s | %-8d | %-8d | %-8d | %-14s | %-14s | %-14s", label,
+                analytics.getItemCount(type), analytics.getWornCount(type), analytics.getUnwornCount(type),
+                ClosetAnalytics.dollars(analytics.getValueCents(type)),
+                priceText(analytics.getAveragePricePerWear(type)),
+                priceText(analytics.getMedianPricePerWear(type))));
+    }
+
+    // Returns the price with 2 decimal places, or N/A if there is none
+    private static String priceText(double price) {
+        return Double.isNaN(price) ? "N/A" : String.format("%.2f", price);
+    }
+
+    // Saves the table of every garment within the closet to a file chosen by the user.
+    // The table is streamed to the file as it is written, so even very large closets
+    // never have to be held in memory as text.
+    private void saveCloset() {
+        System.out.println("Please enter the path of the file to save your closet to.");
+        System.out.print("File: ");
+        String path = console.nextLine().trim();
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            TableRenderer table = TableRenderer.forFile(out);
+            printCloset(table);
+            table.flush();
+            System.out.println("Success. Your closet has been saved to " + path);
+        } catch (IOException | UncheckedIOException | InvalidPathException e) {
+            System.out.println("Sorry, the file could not be written: " + e.getMessage());
+        }
     }
 
     // Prints the 5 least recently worn items from a given category.
     // If there are less than 5 items that have been worn, it will print every item.
     // Does not print unworn items.
     private void printLeastRecentFive(String type) {
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        if (closetSection.isEmpty()) {
-            System.out.println("There are no unworn items of the type " + type + " in your closet.");
+        TableRenderer table = TableRenderer.forConsole();
+        if (isEmpty(type)) {
+            table.line("There are no unworn items of the type " + type + " in your closet.");
         } else {
-            int remPrints = closetSection.size();
-            if (remPrints > 5) {
-                remPrints = 5;
-            }
-            for (Garment item : closetSection) {
-                if (item.getTimesWorn() > 0 && remPrints > 0) {
-                    item.printGarment();
-                    remPrints--;
-                }
+            for (Garment item : leastRecentlyWorn(type, 5)) {
+                table.row(item);
             }
         }
+        table.flush();
     }
 
     // Prints every unworn item of the given type and the number of unworn items.
     private void printUnworn(String type) {
-        boolean unworn = true;
+        TableRenderer table = TableRenderer.forConsole();
+        for (Garment item : unwornGarments(type)) {
+            table.row(item);
+        }
         int totUnworn = 0;
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        if (!closetSection.isEmpty()) {
-            Iterator<Garment> items = closetSection.iterator();
-            while (items.hasNext() && unworn) {
-                Garment item = items.next();
-                if (item.getTimesWorn() == 0) {
-                    item.printGarment();
-                    totUnworn++;
-                } else {
-                    unworn = false;
+        for (int id : categories.subtree(type)) {
+            totUnworn += analytics().getUnwornCount(categories.pathOf(id));
+        }
+        if (totUnworn == 0) {
+            table.line("You have no unworn garments of this category.");
+        } else {
+            table.line("You have " + totUnworn + " unworn items in this category.");
+        }
+        table.flush();
+    }
+
+    // Prints the given garments, or the given message if there are none
+    private void printGarments(SortedSet<Garment> items, String noneFound) {
+        TableRenderer table = TableRenderer.forConsole();
+        if (items.isEmpty()) {
+            table.line(noneFound);
+        } else {
+            table.header();
+            for (Garment item : items) {
+                table.row(item);
+            }
+        }
+        table.flush();
+    }
+
+    // Asks which garments outfits may use and prints the best outfits for today
+    private void printOutfits() {
+        System.out.println("Leave out items worn in the last:");
+        System.out.println("1) No limit");
+        System.out.println("2) 3 days");
+        System.out.println("3) 7 days");
+        System.out.println("4) 14 days");
+        System.out.println("5) 30 days");
+        System.out.print("Enter your choice: ");
+        int excludeDays = new int[] {0, 3, 7, 14, 30}[readChoice(5) - 1];
+        System.out.println("Include outerwear? 1) Yes 2) No");
+        System.out.print("Enter your choice: ");
+        boolean withOuterwear = readChoice(2) == 1;
+        System.out.println("Include an accessory? 1) Yes 2) No");
+        System.out.print("Enter your choice: ");
+        boolean withAccessory = readChoice(2) == 1;
+
+        List<OutfitRecommender.Outfit> outfits = new OutfitRecommender(this).recommend(OUTFIT_COUNT,
+                LocalDate.now().toEpochDay(), excludeDays, withOuterwear, withAccessory);
+        TableRenderer table = TableRenderer.forConsole();
+        if (outfits.isEmpty()) {
+            table.line("There are not enough items to make an outfit.");
+        }
+        for (int i = 0; i < outfits.size(); i++) {
+            table.line(" ");
+            table.line("Outfit " + (i + 1) + String.format(" (score %.2f)", outfits.get(i).getScore()));
+            table.header();
+            for (Garment item : outfits.get(i).getItems()) {
+                table.row(item);
+            }
+        }
+        table.flush();
+    }
+
+    // Asks for an item of the given type (or the whole category), two dates and whether
+    // to count by month or by week, then prints the number of wears in each month or week
+    // between the dates and how many times a week they were worn on average.
+    private void printWearCounts(String type) {
+        System.out.println("Please write the name of the item, or press Enter to include " +
+                "every item of this category.");
+        System.out.print("Name: ");
+        String name = console.nextLine();
+        Garment item = null;
+        if (!name.isBlank()) {
+            item = findGarment(type, name);
+            while (item == null) {
+                name = nameNotFound();
+                if (name == null) {
+                    return;
                 }
+                item = findGarment(type, name);
             }
         }
-        if (closetSection.isEmpty() || totUnworn == 0) {
-            System.out.println("You have no unworn garments of this category.");
+        System.out.println("Please enter the first date, following the format MO/DA/YEAR");
+        long first = readDate();
+        System.out.println("Please enter the last date, following the format MO/DA/YEAR");
+        long last = readDate();
+        if (first > last) {
+            long swap = first;
+            first = last;
+            last = swap;
+        }
+        if (last - first > MAX_COUNTED_DAYS) {
+            System.out.println("Those dates are more than " + MAX_COUNTED_YEARS
+                    + " years apart. Please choose dates closer together.");
+            return;
+        }
+        System.out.println("1) Count wears by month");
+        System.out.println("2) Count wears by week");
+        System.out.print("Enter your choice: ");
+        boolean byMonth = readChoice(2) == 1;
+
+        TableRenderer table = TableRenderer.forConsole();
+        int total = 0;
+        if (byMonth) {
+            int[] counts = wearsByMonth(type, item, first, last);
+            int firstMonth = WearHistory.monthOf(first);
+            for (int i = 0; i < counts.length; i++) {
+                int month = firstMonth + i;
+                table.line(String.format("%02d/%d        | %d", month % 12 + 1, month / 12, counts[i]));
+                total += counts[i];
+            }
         } else {
-            System.out.println("You have " + totUnworn + " unworn items in this category.");
+            int[] counts = wearsByWeek(type, item, first, last);
+            for (int i = 0; i < counts.length; i++) {
+                LocalDate start = LocalDate.ofEpochDay(first + i * 7L);
+                table.line(String.format("Week of %02d/%02d/%d | %d", start.getMonthValue(),
+                        start.getDayOfMonth(), start.getYear(), counts[i]));
+                total += counts[i];
+            }
+        }
+        table.line("Total wears: " + total + String.format(" (%.2f per week)", total / ((last - first + 1) / 7.0)));
+        table.flush();
+    }
+
+    // Reads a MO/DA/YEAR date, asking again until it is valid.
+    // Returns the date as days since 01/01/1970.
+    private long readDate() {
+        System.out.print("Date: ");
+        while (true) {
+            try {
+                return console.nextDate();
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid date. Please use the format MO/DA/YEAR, for example 04/27/2023.");
+                System.out.print("Date: ");
+            }
         }
     }
 
@@ -328,20 +802,28 @@ public class Closet {
     // Return type in the closet
     private String typeSelection() {
         System.out.println("Write the type from the list below (not case sensitive):");
-        System.out.println("Tops");
-        System.out.println("Bottoms");
-        System.out.println("Full Body");
-        System.out.println("Outerwear");
-        System.out.println("Shoes");
-        System.out.println("Accessories");
+        for (String type : categories.paths()) {
+            System.out.println(titleCase(type));
+        }
         System.out.println(" ");
         System.out.print("Type: ");
 
         String type = console.nextLine();
-        type = type.toLowerCase();
+        type = CategoryRegistry.normalize(type);
         return type;
     }
 
+    // Returns the text with the first letter of every word in upper case
+    private static String titleCase(String text) {
+        char[] letters = text.toCharArray();
+        for (int i = 0; i < letters.length; i++) {
+            if (i == 0 || !Character.isLetterOrDigit(letters[i - 1])) {
+                letters[i] = Character.toUpperCase(letters[i]);
+            }
+        }
+        return new String(letters);
+    }
+
     // After the user inputs an invalid type, prints tips to help the user with their next input.
     private void incorrectTypeSelection() {
         System.out.print(" ");
@@ -352,69 +834,1427 @@ public class Closet {
         System.out.println(" ");
     }
 
+    // The following methods find and change garments without asking the user. Besides
+    // the menu actions above they are used by ClosetServer, ClosetStressTest and the
+    // JMH benchmarks, so they are package-private rather than private.
+
     // Returns the garment of the given type with the given name
     // Returns null if there is not a garment of the given type with the given name
-    private Garment findGarment(String type, String name) {
-        name = name.toLowerCase();
-        TreeSet<Garment> closetSection = new TreeSet<>(closet.get(type));
-        for (Garment item : closetSection) {
-            String itemName = item.getName();
-            if (itemName.toLowerCase().equals(name)) {
-                return item;
+    Garment findGarment(String type, String name) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.FIND);
+        try {
+            return sections[categories.id(type)].find(name.toLowerCase());
+        } finally {
+            if (timer != null) {
+                timer.stop();
             }
         }
-        return null;
     }
 
-    // Occurs if the item the user wants to remove does not exist,
-    // allows the user to either try again or return to main menu.
-    private String nameNotFound() {
-        System.out.println("Name not found.");
-        System.out.println("NOTE: You must enter the exact name of the item you would like to select.");
-        System.out.println("Be careful to check for whitespace, not case sensitive.");
-        System.out.println("Please type the name of the item you would like to select, or " +
-                "type 'EXIT' to return to main menu");
-        String response = console.nextLine();
-        if (!response.equalsIgnoreCase("EXIT")) {
-            return response;
+    // Adds the given garment to its category and saves the change
+    void addGarment(Garment item) {
+        if (insert(item)) {
+            record(ClosetHistory.Change.add(item));
         }
-        return null;
     }
 
-    // Makes sure the user makes a valid choice during number selection
-    public int validSelection(int max) {
-        System.out.println("Invalid choice. Please try again.");
-        System.out.println("Enter your choice: ");
-        int choice = console.nextInt();
-        console.nextLine();
-        if (choice > max || choice <= 0) {
-            choice = validSelection(max);
+    // Replaces the given garments with the one merged from them and saves the change,
+    // which is undone and redone as one. Returns false if the category of the merged
+    // garment already holds it, in which case the given garments are put back and
+    // nothing is kept in the history.
+    boolean mergeGarments(List<Garment> items, Garment merged) {
+        for (Garment item : items) {
+            delete(item.getType(), item);
         }
-        return choice;
+        if (!insert(merged)) {
+            for (Garment item : items) {
+                insert(item);
+            }
+            return false;
+        }
+        record(ClosetHistory.Change.merge(items, merged));
+        return true;
     }
 
-    // The Digital Closet program's main menu.
-    // Allows the user to choose which action they would like to do.
-    public void mainWindow() {
-        System.out.println("Welcome to the main window.");
-        System.out.println(" ");
+    // Removes the given garment from the given category and saves the change
+    void removeGarment(String type, Garment item) {
+        delete(type, item);
+        record(ClosetHistory.Change.remove(item));
+    }
 
-        System.out.println("Please select from the following actions:");
-        System.out.println(" ");
+    // Logs a wear of the given garment of the given type on the given MO/DA/YEAR date
+    // and saves the change.
+    // Throws an IllegalArgumentException if the date is not valid.
+    void wearGarment(String type, Garment item, String date) {
+        wearGarment(type, item, Garment.parseDate(date));
+    }
 
-        System.out.println("1) Add Item");
-        System.out.println("2) Log Item"); // log an item as worn
-        System.out.println("3) Search Items");
-        System.out.println("4) Remove Item");
-        System.out.println("5) Display Items");
-        System.out.println("6) Quit");
-        System.out.print("Your choice: ");
+    // Logs a wear of the given garment of the given type on the given day (days since
+    // 01/01/1970) and saves the change
+    void wearGarment(String type, Garment item, long day) {
+        long previousLastWorn = item.getLastWorn();
+        wear(type, item, day);
+        record(ClosetHistory.Change.wear(item, day, previousLastWorn));
+    }
 
-        int choice = console.nextInt();
-        console.nextLine();
-        if (choice > 6 || choice <= 0) {
-            validSelection(6);
+    // Adds the given garment to its category and saves the change, without keeping it
+    // in the history. Returns false if the category already holds the garment.
+    // Like every change, it is saved before it is made, so a change that cannot be
+    // saved leaves the closet as it was.
+    private boolean insert(Garment item) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.ADD);
+        try {
+            Section section = sectionFor(item);
+            if (section.contains(item)) {
+                return false;
+            }
+            String key = item.getName().toLowerCase();
+            boolean addedBack = section.removals.containsKey(key);
+            long now = System.currentTimeMillis();
+            if (journal != null) {
+                journal.logAdd(item);
+                if (addedBack) {
+                    journal.logMark(item.getType(), key, now);
+                }
+            }
+            if (addedBack) {
+                section.removals.put(key, now);
+            }
+            // a garment in the snapshot file with the same name is moved into memory,
+            // where the new one takes its place in the name index
+            Garment sameName = section.find(key);
+            if (sameName != null) {
+                section.keep(sameName);
+            }
+            list(section, item);
+            if (journal != null) {
+                compactIfNeeded();
+            }
+            return true;
+        } finally {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    // Removes the given garment from the given category and saves the change,
+    // without keeping it in the history
+    private void delete(String type, Garment item) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.REMOVE);
+        try {
+            String key = item.getName().toLowerCase();
+            long now = System.currentTimeMillis();
+            if (journal != null) {
+                journal.logRemove(type, item.getName());
+                journal.logMark(type, key, now);
+            }
+            Section section = sections[item.getCategoryId()];
+            unlist(section, item);
+            section.removals.put(key, now);
+            if (journal != null) {
+                compactIfNeeded();
+            }
+        } finally {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    // Logs a wear of the given garment of the given type on the given day and saves the
+    // change, without keeping it in the history.
+    // The wear count and date are sort keys of the category, so the garment is taken
+    // out of its category while they change and put back in its new position.
+    private void wear(String type, Garment item, long day) {
+        ClosetMetrics.Timer timer = ClosetMetrics.start(ClosetMetrics.Operation.WEAR);
+        try {
+            if (journal != null) {
+                journal.logWear(type, item.getName(), day);
+            }
+            Section section = sections[item.getCategoryId()];
+            changing(item, true);
+            section.keep(item);
+            section.items.remove(item);
+            if (analytics != null) {
+                analytics.beforeWear(item);
+            }
+            item.increaseWear(day);
+            section.items.add(item);
+            if (analytics != null) {
+                analytics.afterWear(item);
+            }
+            if (journal != null) {
+                compactIfNeeded();
+            }
+        } finally {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    // Takes back the last wear of the given garment and saves the change, without keeping
+    // it in the history. The garment is moved back to its position before the wear.
+    private void unwear(Garment item, long previousLastWorn) {
+        if (journal != null) {
+            journal.logUnwear(item.getType(), item.getName(), previousLastWorn);
+        }
+        Section section = sections[item.getCategoryId()];
+        changing(item, true);
+        section.keep(item);
+        section.items.remove(item);
+        if (analytics != null) {
+            analytics.beforeWear(item);
+        }
+        item.removeLastWear(previousLastWorn);
+        section.items.add(item);
+        if (analytics != null) {
+            analytics.afterWear(item);
+        }
+        if (journal != null) {
+            compactIfNeeded();
+        }
+    }
+
+    // Adds a batch of new garments of the given type, which must already be in sorted order.
+    // Garments whose name is already used in that category are skipped.
+    // The batch is merged with the category in one pass and the tree rebuilt from the
+    // result, which is much faster than adding a large batch one garment at a time.
+    // Returns the number of garments added.
+    int addSorted(String type, Garment[] sorted) {
+        CategoryRegistry.Category category = categories.get(type);
+        Section section = sections[category.getId()];
+        Garment[] added = new Garment[sorted.length];
+        Set<String> addedNames = new HashSet<>();
+        long now = System.currentTimeMillis();
+        // if the journal fails part way, the garments saved before that are still added
+        // so the closet matches its journal, and the failure is thrown at the end
+        UncheckedIOException failure = null;
+        int count = 0;
+        for (Garment item : sorted) {
+            String key = item.getName().toLowerCase();
+            if (section.find(key) == null && addedNames.add(key)) {
+                boolean addedBack = section.removals.containsKey(key);
+                if (journal != null) {
+                    try {
+                        journal.logAdd(item);
+                        if (addedBack) {
+                            journal.logMark(item.getType(), key, now);
+                        }
+                    } catch (UncheckedIOException e) {
+                        failure = e;
+                        break;
+                    }
+                }
+                if (addedBack) {
+                    section.removals.put(key, now);
+                }
+                added[count] = item;
+                count++;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            changing(added[i], false);
+            added[i].setCategory(categories, category.getId());
+            section.names.put(added[i].getName().toLowerCase(), added[i]);
+            if (searchIndex != null) {
+                searchIndex.add(added[i]);
+            }
+        }
+
+        TreeSet<Garment> closetSection = section.items;
+        Garment[] merged = new Garment[closetSection.size() + count];
+        Iterator<Garment> existing = closetSection.iterator();
+        Garment next = existing.hasNext() ? existing.next() : null;
+        int fromBatch = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (next != null && (fromBatch == count || next.compareTo(added[fromBatch]) < 0)) {
+                merged[i] = next;
+                next = existing.hasNext() ? existing.next() : null;
+            } else {
+                merged[i] = added[fromBatch];
+                fromBatch++;
+            }
+        }
+        closetSection.clear();
+        closetSection.addAll(new SortedGarments(merged, null));
+        if (analytics != null) {
+            analytics.addAll(Arrays.asList(added).subList(0, count));
+        }
+        if (journal != null) {
+            compactIfNeeded();
+        }
+        if (count > 0) {
+            record(ClosetHistory.Change.add(Arrays.copyOf(added, count)));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return count;
+    }
+
+    // The following methods answer questions about when garments were last worn.
+    // Each category is already sorted by the day its garments were last worn, after the
+    // unworn ones, so they are answered with views of the category between two
+    // boundaries instead of looking at every garment. The garments of a category's
+    // sub-categories are included too.
+
+    // Returns the unworn garments of the given type
+    SortedSet<Garment> unwornGarments(String type) {
+        return within(type, items -> items.headSet(FIRST_WORN));
+    }
+
+    // Returns up to k of the worn garments of the given type that were worn least recently,
+    // least recent first
+    List<Garment> leastRecentlyWorn(String type, int k) {
+        List<Garment> items = new ArrayList<>(Math.min(k, 64));
+        Iterator<Garment> worn = within(type, section -> section.tailSet(FIRST_WORN)).iterator();
+        while (items.size() < k && worn.hasNext()) {
+            items.add(worn.next());
+        }
+        return items;
+    }
+
+    // Returns the garments of the given type last worn between the given days
+    // (days since 01/01/1970), including both
+    SortedSet<Garment> wornBetween(String type, long firstDay, long lastDay) {
+        if (firstDay > lastDay) {
+            return Collections.emptySortedSet();
+        }
+        return within(type, items -> items.subSet(Garment.wornFrom(firstDay),
+                Garment.wornFrom(lastDay + 1)));
+    }
+
+    // Returns the garments of the given type that have not been worn on or after
+    // the given day (days since 01/01/1970), including the ones never worn
+    SortedSet<Garment> notWornSince(String type, long day) {
+        return within(type, items -> items.headSet(Garment.wornFrom(day)));
+    }
+
+    // Returns the view chosen by the given function of the garments of the given type.
+    // If the type has sub-categories, the view of each of them is copied into one set.
+    private SortedSet<Garment> within(String type, Function<SortedSet<Garment>, SortedSet<Garment>> view) {
+        int[] ids = categories.subtree(type);
+        if (ids.length == 1) {
+            return view.apply(sections[ids[0]].all());
+        }
+        TreeSet<Garment> found = new TreeSet<>();
+        for (int id : ids) {
+            found.addAll(view.apply(sections[id].all()));
+        }
+        return found;
+    }
+
+    // Returns the number of wears between the given days (days since 01/01/1970) in each
+    // month, starting with the month of firstDay, of the given garment, or of every
+    // garment of the given type if the garment is null.
+    // Throws an IllegalArgumentException if the days are further apart than MAX_COUNTED_DAYS.
+    int[] wearsByMonth(String type, Garment item, long firstDay, long lastDay) {
+        checkCountedDays(firstDay, lastDay);
+        int[] counts = new int[WearHistory.monthOf(lastDay) - WearHistory.monthOf(firstDay) + 1];
+        for (Garment garment : item != null ? List.of(item) : garmentsWithin(type)) {
+            WearHistory history = garment.getWearHistory();
+            if (history != null) {
+                history.countByMonth(counts, firstDay, lastDay);
+            }
+        }
+        return counts;
+    }
+
+    // Returns the number of wears between the given days (days since 01/01/1970) in each
+    // week starting from firstDay, of the given garment, or of every garment of the given
+    // type if the garment is null.
+    // Throws an IllegalArgumentException if the days are further apart than MAX_COUNTED_DAYS.
+    int[] wearsByWeek(String type, Garment item, long firstDay, long lastDay) {
+        checkCountedDays(firstDay, lastDay);
+        int[] counts = new int[Math.toIntExact((lastDay - firstDay) / 7 + 1)];
+        for (Garment garment : item != null ? List.of(item) : garmentsWithin(type)) {
+            WearHistory history = garment.getWearHistory();
+            if (history != null) {
+                history.countByWeek(counts, firstDay, lastDay);
+            }
+        }
+        return counts;
+    }
+
+    // Throws an IllegalArgumentException unless lastDay is from firstDay to
+    // MAX_COUNTED_DAYS after it
+    private static void checkCountedDays(long firstDay, long lastDay) {
+        if (lastDay < firstDay || lastDay - firstDay > MAX_COUNTED_DAYS) {
+            throw new IllegalArgumentException("Cannot count wears from day " + firstDay + " to day " + lastDay);
+        }
+    }
+
+    // The following methods look up and change the categories of the closet.
+
+    // Returns the paths of the closet's categories, each before its sub-categories
+    List<String> getCategories() {
+        return categories.paths();
+    }
+
+    // Returns true if the closet has a category with the given path
+    boolean hasCategory(String type) {
+        return categories.contains(type);
+    }
+
+    // Returns the garments of the given category in order, without those of its sub-categories.
+    // Throws an IllegalArgumentException if the closet does not have the category.
+    SortedSet<Garment> getCategory(String type) {
+        int id = categories.id(type);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+        return Collections.unmodifiableSortedSet(sections[id].all());
+    }
+
+    // Returns the garments of the given category and of its sub-categories, each category in order.
+    // Throws an IllegalArgumentException if the closet does not have the category.
+    Collection<Garment> garmentsWithin(String type) {
+        int[] ids = categories.subtree(type);
+        if (ids.length == 1) {
+            return Collections.unmodifiableCollection(sections[ids[0]].all());
+        }
+        List<Garment> found = new ArrayList<>();
+        for (int id : ids) {
+            found.addAll(sections[id].all());
+        }
+        return found;
+    }
+
+    // Returns the marks of the names removed from the given category or added back to
+    // it, see Section.removals.
+    // Throws an IllegalArgumentException if the closet does not have the category.
+    Map<String, Long> removalsOf(String type) {
+        int id = categories.id(type);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+        return Collections.unmodifiableMap(sections[id].removals);
+    }
+
+    // Adds a category with the given path, such as "shoes/boots", along with the
+    // categories it is inside of if they are missing, and saves the change.
+    // Throws an IllegalArgumentException if the path is not valid or already used.
+    void addCategory(String path) {
+        checkCategoryName(path);
+        addSections(categories.add(path));
+        saveCategories();
+    }
+
+    // Moves the category at from to the path to, along with its sub-categories and
+    // garments, and saves the change. If there is no category at to yet this renames
+    // the category, otherwise the two categories are merged (see CategoryRegistry.move).
+    // Throws an IllegalArgumentException if the move is not possible, such as when both
+    // categories have an item with the same name, in which case nothing is changed.
+    void moveCategory(String from, String to) {
+        checkCategoryName(to);
+        Map<Integer, Integer> moves = categories.plan(from, to);
+        for (Map.Entry<Integer, Integer> move : moves.entrySet()) {
+            if (!move.getKey().equals(move.getValue())) {
+                Section targetSection = sections[move.getValue()];
+                for (Garment item : sections[move.getKey()].all()) {
+                    if (targetSection.find(item.getName().toLowerCase()) != null) {
+                        throw new IllegalArgumentException("Both categories have an item named " + item.getName());
+                    }
+                }
+            }
+        }
+        addSections(categories.move(from, to));
+        // a renamed or moved category keeps its id and garments, while the garments of
+        // a category merged into another join that category
+        for (Map.Entry<Integer, Integer> move : moves.entrySet()) {
+            int source = move.getKey();
+            int target = move.getValue();
+            if (source != target) {
+                Section section = sections[source];
+                sections[source] = null;
+                if (section.stored != null) {
+                    // the statistics count the garments still in the file by their
+                    // category, so they are counted again once they are needed
+                    analytics = null;
+                }
+                Section targetSection = sections[target];
+                for (Garment item : new ArrayList<>(section.all())) {
+                    changing(item, true);
+                    if (analytics != null) {
+                        analytics.remove(item);
+                    }
+                    item.setCategory(categories, target);
+                    targetSection.items.add(item);
+                    targetSection.names.put(item.getName().toLowerCase(), item);
+                    if (analytics != null) {
+                        analytics.add(item);
+                    }
+                }
+                for (Map.Entry<String, Long> mark : section.removals.entrySet()) {
+                    targetSection.removals.merge(mark.getKey(), mark.getValue(), Math::max);
+                }
+            }
+        }
+        // earlier changes refer to the categories as they were, so they can no longer be undone
+        forgetHistory();
+        saveCategories();
+    }
+
+    // Adds the given categories and garments brought over from another copy of the
+    // closet by ClosetSync, along with the marks of the names it removed or added back
+    // (see Section.removals), and saves the changes. Marks are given for each category
+    // by lower case name. A garment replaces the one of the same type with the same
+    // name, if there is one, and a marked name without a garment is removed.
+    // The changes are added to the journal, unless categories were added: those are only
+    // saved in a snapshot, which then holds the other changes as well.
+    // Returns the number of garments removed.
+    int applySync(List<String> paths, List<Garment> items, Map<String, Map<String, Long>> marks) {
+        boolean categoriesAdded = false;
+        for (String path : paths) {
+            if (!categories.contains(path)) {
+                addSections(categories.add(path));
+                categoriesAdded = true;
+            }
+        }
+        for (Garment item : items) {
+            if (!categories.contains(item.getType())) {
+                addSections(categories.add(item.getType()));
+                categoriesAdded = true;
+            }
+        }
+        ClosetJournal log = categoriesAdded ? null : journal;
+        Set<Garment> synced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Garment item : items) {
+            Section section = sectionFor(item);
+            Garment replaced = section.find(item.getName().toLowerCase());
+            if (log != null) {
+                if (replaced != null) {
+                    log.logRemove(item.getType(), replaced.getName());
+                }
+                log.logAdd(item);
+            }
+            if (replaced != null) {
+                unlist(section, replaced);
+            }
+            list(section, item);
+            synced.add(item);
+        }
+        int removedCount = 0;
+        for (Map.Entry<String, Map<String, Long>> category : marks.entrySet()) {
+            String type = category.getKey();
+            Section section = sections[categories.id(type)];
+            for (Map.Entry<String, Long> mark : category.getValue().entrySet()) {
+                Garment removed = section.find(mark.getKey());
+                if (removed != null && synced.contains(removed)) {
+                    removed = null;
+                }
+                if (log != null) {
+                    if (removed != null) {
+                        log.logRemove(type, removed.getName());
+                    }
+                    log.logMark(type, mark.getKey(), mark.getValue());
+                }
+                if (removed != null) {
+                    unlist(section, removed);
+                    removedCount++;
+                }
+                section.removals.put(mark.getKey(), mark.getValue());
+            }
+        }
+        // the garments replaced or removed may be the ones earlier changes refer to
+        forgetHistory();
+        if (categoriesAdded) {
+            saveCategories();
+        } else if (journal != null) {
+            compactIfNeeded();
+        }
+        return removedCount;
+    }
+
+    // Throws an IllegalArgumentException if the path cannot be used as a category
+    private static void checkCategoryName(String path) {
+        if (CategoryRegistry.normalize(path).equals("all")) {
+            throw new IllegalArgumentException("The name all is used to search every category");
+        }
+    }
+
+    // Points the garment to this closet's category with the garment's type and returns
+    // the section of that category.
+    // Throws an IllegalArgumentException if the closet does not have the category.
+    private Section sectionFor(Garment item) {
+        CategoryRegistry.Category category = categories.get(item);
+        if (category == null) {
+            throw new IllegalArgumentException("Unknown type " + item.getType());
+        }
+        item.setCategory(categories, category.getId());
+        return sections[category.getId()];
+    }
+
+    // Puts the given garment in its section, the statistics and the search index
+    private void list(Section section, Garment item) {
+        changing(item, false);
+        section.items.add(item);
+        section.names.put(item.getName().toLowerCase(), item);
+        if (analytics != null) {
+            analytics.add(item);
+        }
+        if (searchIndex != null) {
+            searchIndex.add(item);
+        }
+    }
+
+    // Takes the given garment out of its section, the statistics and the search index
+    private void unlist(Section section, Garment item) {
+        changing(item, true);
+        section.keep(item);
+        section.items.remove(item);
+        section.names.remove(item.getName().toLowerCase());
+        if (analytics != null) {
+            analytics.remove(item);
+        }
+        if (searchIndex != null) {
+            searchIndex.remove(item);
+        }
+    }
+
+    // Makes room for the given categories and gives the ones without garments yet an empty section
+    private void addSections(List<Integer> ids) {
+        for (int id : ids) {
+            growSections(id);
+            if (sections[id] == null) {
+                sections[id] = new Section();
+            }
+        }
+    }
+
+    // Makes the sections array large enough to hold the given category id
+    private void growSections(int id) {
+        if (id >= sections.length) {
+            sections = Arrays.copyOf(sections, Math.max(id + 1, sections.length * 2));
+        }
+    }
+
+    // Returns true if the given category and its sub-categories have no garments
+    private boolean isEmpty(String type) {
+        for (int id : categories.subtree(type)) {
+            if (sections[id].size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Saves a change to the categories. Categories change rarely, so rather than adding
+    // records for them to the journal a new snapshot is written, which holds them.
+    private void saveCategories() {
+        if (journal != null) {
+            journal.compact(this);
+        }
+    }
+
+    // The following methods undo and redo the recent changes to the closet, see ClosetHistory.
+
+    // Undoes the most recent change and saves the closet.
+    // Returns the change, or null if there was nothing to undo.
+    ClosetHistory.Change undoChange() {
+        ClosetHistory.Change change = history.undo();
+        if (change != null) {
+            if (journal != null) {
+                journal.logUndo(change);
+            }
+            revert(change);
+        }
+        return change;
+    }
+
+    // Makes the change undone most recently again and saves the closet.
+    // Returns the change, or null if there was nothing to redo.
+    ClosetHistory.Change redoChange() {
+        ClosetHistory.Change change = history.redo();
+        if (change == null) {
+            return null;
+        }
+        if (journal != null) {
+            journal.logRedo();
+        }
+        Garment[] items = change.getItems();
+        for (int i = 0; i < items.length; i++) {
+            if (change.adds(i)) {
+                insert(items[i]);
+            } else if (change.removes(i)) {
+                delete(items[i].getType(), items[i]);
+            } else {
+                wear(items[i].getType(), items[i], change.getDay());
+            }
+        }
+        return change;
+    }
+
+    // Returns the recent changes that can be undone, most recent first, up to the given number
+    List<ClosetHistory.Change> recentChanges(int count) {
+        return history.recent(count);
+    }
+
+    // Returns the number of changes that can be undone made after the given time
+    // (milliseconds since 01/01/1970)
+    int changesSince(long time) {
+        return history.countSince(time);
+    }
+
+    // Opens a version of the closet as it was before its given number of most recent
+    // changes. The changes are undone in the version only, on copies of the garments
+    // they changed, so this costs time and memory for those changes rather than for
+    // the whole closet. The version must be closed once it is no longer needed.
+    Version versionBefore(int changes) {
+        Version version = openVersion(null);
+        for (ClosetHistory.Change change : history.recent(changes)) {
+            version.undo(change);
+        }
+        return version;
+    }
+
+    // Opens a version of the garments of the given category and its sub-categories, or of
+    // every category if the type is null, as they are now. See Version.
+    // Throws an IllegalArgumentException if the closet does not have the category.
+    Version openVersion(String type) {
+        Version version = new Version(type == null ? categories.ids() : categories.subtree(type));
+        versions.add(version);
+        return version;
+    }
+
+    // Undoes the given change
+    private void revert(ClosetHistory.Change change) {
+        Garment[] items = change.getItems();
+        for (int i = items.length - 1; i >= 0; i--) {
+            Garment item = items[i];
+            if (change.adds(i)) {
+                delete(item.getType(), item);
+            } else if (change.removes(i)) {
+                insert(item);
+            } else {
+                unwear(item, change.getPreviousLastWorn());
+            }
+        }
+    }
+
+    // Keeps a change that can be undone, saving it with the closet
+    private void record(ClosetHistory.Change change) {
+        if (journal != null) {
+            journal.logChange(change);
+        }
+        history.record(change);
+    }
+
+    // Forgets every change, as when the closet is changed in a way that cannot be undone
+    private void forgetHistory() {
+        if (journal != null) {
+            journal.logForget();
+        }
+        history.clear();
+    }
+
+    // Adds the history of changes to the journal, which was just compacted
+    void logHistory(ClosetJournal compacted) {
+        history.logTo(compacted);
+    }
+
+    // Tells every open version that the given garment is about to change, or to be added
+    // if it is not in the closet yet
+    private void changing(Garment item, boolean inCloset) {
+        for (Version version : versions) {
+            version.keep(item, inCloset);
+        }
+    }
+
+    // Replaces the journal with a fresh snapshot once it has grown too long
+    private void compactIfNeeded() {
+        int itemCount = 0;
+        for (Section section : sections) {
+            if (section != null) {
+                itemCount += section.size();
+            }
+        }
+        if (journal.needsCompaction(itemCount)) {
+            journal.compact(this);
+        }
+    }
+
+    // Returns the statistics of the closet, counting every garment the first time they
+    // are asked for. Garments still in the snapshot file are counted from the file
+    // without being built.
+    private ClosetAnalytics analytics() {
+        if (analytics == null) {
+            ClosetAnalytics counted = new ClosetAnalytics(categories);
+            for (int id : categories.ids()) {
+                if (sections[id].stored != null) {
+                    counted.addStored(id, sections[id].stored);
+                }
+                counted.addAll(new ArrayList<>(sections[id].items));
+            }
+            analytics = counted;
+        }
+        return analytics;
+    }
+
+    // Returns the search index of the closet, indexing every garment the first time
+    // the closet is searched. Garments still in the snapshot file are indexed from the
+    // file without being built.
+    private SearchIndex searchIndex() {
+        if (searchIndex == null) {
+            List<ClosetSnapshot.StoredGarments> stored = new ArrayList<>();
+            for (int id : categories.ids()) {
+                if (sections[id].stored != null) {
+                    stored.add(sections[id].stored);
+                }
+            }
+            SearchIndex index = new SearchIndex(categories, stored);
+            for (int id : categories.ids()) {
+                for (Garment item : sections[id].items) {
+                    index.add(item);
+                }
+            }
+            searchIndex = index;
+        }
+        return searchIndex;
+    }
+
+    // The following methods are used by ClosetJournal while a saved closet is loaded.
+    // Garments are only tracked by name until finishRestore() sorts them into the
+    // closet, so replaying wears does not have to keep the categories in order.
+    // Garments are also kept in the order they were loaded, which is mostly sorted
+    // already since snapshots are written one category at a time in order.
+
+    // Restores the categories of a saved closet, replacing the default ones.
+    // Must be called before any garment is restored.
+    void restoreCategories(List<String> paths) {
+        categories.clear();
+        sections = new Section[0];
+        for (String path : paths) {
+            if (!categories.contains(path)) {
+                addSections(categories.add(path));
+            }
+        }
+    }
+
+    // Restores the garments of the given category that are kept in the snapshot file
+    void restoreStored(String type, ClosetSnapshot.StoredGarments stored) {
+        int id = categories.id(type);
+        stored.setCategory(categories, id);
+        sections[id].stored = stored;
+    }
+
+    // Restores a saved garment. Its category is added if the closet does not have it.
+    void restoreAdd(Garment item) {
+        if (categories.id(item.getType()) < 0) {
+            addSections(categories.add(item.getType()));
+        }
+        startRestore();
+        Section section = sectionFor(item);
+        String key = item.getName().toLowerCase();
+        if (section.stored != null) {
+            Garment stored = section.stored.find(key);
+            if (stored != null) {
+                section.stored.take(stored);
+            }
+        }
+        Garment replaced = section.names.put(key, item);
+        if (replaced != null) {
+            dropped.add(replaced);
+        }
+        restored.computeIfAbsent(item.getCategoryId(), id -> new ArrayList<>()).add(item);
+    }
+
+    // Restores the removal of the garment of the given type with the given name
+    void restoreRemove(String type, String name) {
+        Garment item = restoredGarment(type, name);
+        if (item != null) {
+            sections[item.getCategoryId()].names.remove(name.toLowerCase());
+            dropped.add(item);
+        }
+    }
+
+    // Restores the undoing of the last wear of the garment of the given type with the given name
+    void restoreUnwear(String type, String name, long previousLastWorn) {
+        Garment item = restoredGarment(type, name);
+        if (item != null && item.getTimesWorn() > 0) {
+            item.removeLastWear(previousLastWorn);
+        }
+    }
+
+    // Restores a wear of the garment of the given type with the given name
+    void restoreWear(String type, String name, long day) {
+        Garment item = restoredGarment(type, name);
+        if (item != null) {
+            item.increaseWear(day);
+        }
+    }
+
+    // Restores the mark of a name removed from the category of the given type, or added
+    // back to it, at the given time
+    void restoreMark(String type, String lowerCaseName, long time) {
+        int id = categories.id(type);
+        if (id >= 0) {
+            sections[id].removals.put(lowerCaseName, time);
+        }
+    }
+
+    // Restores a change that can be undone, see ClosetHistory.resolve
+    void restoreChange(ClosetHistory.Change change) {
+        history.record(change);
+    }
+
+    // Restores the undoing of the most recent change, given with what it needs to be redone
+    void restoreUndo(ClosetHistory.Change change) {
+        history.restoreUndo(change);
+    }
+
+    // Restores the redoing of the change undone most recently
+    void restoreRedo() {
+        history.redo();
+    }
+
+    // Restores the forgetting of every change
+    void restoreForget() {
+        history.clear();
+    }
+
+    private void startRestore() {
+        if (restored == null) {
+            restored = new HashMap<>();
+            dropped = new HashSet<>();
+        }
+    }
+
+    // Returns the restored garment of the given type with the given name, or null if
+    // there is none. A garment still in the snapshot file is taken out of it, since
+    // the journal is about to change it, and sorted in with the other restored garments.
+    private Garment restoredGarment(String type, String name) {
+        int id = categories.id(type);
+        if (id < 0) {
+            return null;
+        }
+        Section section = sections[id];
+        String key = name.toLowerCase();
+        Garment item = section.names.get(key);
+        if (item == null && section.stored != null) {
+            item = section.stored.find(key);
+            if (item != null) {
+                section.stored.take(item);
+                section.names.put(key, item);
+                startRestore();
+                restored.computeIfAbsent(id, restoredId -> new ArrayList<>()).add(item);
+            }
+        }
+        return item;
+    }
+
+    // Sorts every restored garment into its category and counts it in the statistics, and
+    // points the restored changes at the garments
+    void finishRestore() {
+        if (restored != null) {
+            sortRestored();
+        }
+        history.resolve((type, name) -> categories.id(type) < 0 ? null
+                : sections[categories.id(type)].find(name.toLowerCase()));
+    }
+
+    private void sortRestored() {
+        for (Map.Entry<Integer, List<Garment>> entry : restored.entrySet()) {
+            List<Garment> kept = entry.getValue();
+            if (!dropped.isEmpty()) {
+                kept.removeIf(dropped::contains);
+            }
+            Garment[] items = kept.toArray(new Garment[0]);
+            Arrays.sort(items);
+            if (searchIndex != null) {
+                for (Garment item : items) {
+                    searchIndex.add(item);
+                }
+            }
+            if (analytics != null) {
+                analytics.addAll(Arrays.asList(items));
+            }
+            TreeSet<Garment> closetSection = sections[entry.getKey()].items;
+            closetSection.clear();
+            closetSection.addAll(new SortedGarments(items, null));
+        }
+        restored = null;
+        dropped = null;
+    }
+
+    // A read-only view of some categories of the closet as they were at one moment, which
+    // stays the same while the closet changes.
+    // Nothing is copied when a version is opened. The closet tells its open versions of
+    // every change before making it (see changing()), and a version keeps a copy of each
+    // garment the first time it changes, or notes that it was added. So a version costs
+    // memory for the garments changed while it is open, not for a copy of the closet.
+    // Garments the closet has not changed since are read from the closet itself, merged
+    // in order with the copies, so the version must be read while the closet is not
+    // being changed, such as under the lock its changes are made under. It can be read
+    // a part at a time, letting the closet change in between (see read()).
+    // A version must be closed once it is no longer needed, or the closet keeps telling
+    // it of every change. Categories are shown with their current paths.
+    class Version implements AutoCloseable {
+        // the categories of the version, in the order they are shown
+        private final int[] ids;
+        // for each garment changed since the version was opened, a copy of it as it was,
+        // or null if it was not in the closet
+        private final Map<Garment, Garment> changed = new IdentityHashMap<>();
+        // the copies by category id, in order
+        private final Map<Integer, TreeSet<Garment>> copies = new HashMap<>();
+        // the category read() is in, and the garment it read last in that category
+        private int next;
+        private Garment last;
+        private long valueCents;
+
+        private Version(int[] ids) {
+            this.ids = ids;
+        }
+
+        // Passes the next garments of the version in order, up to the given number, to the
+        // action, which must not keep them: they can be the closet's own garments.
+        // Returns false once every garment has been passed.
+        boolean read(int count, Consumer<Garment> action) {
+            Garment passed = null;
+            while (count > 0 && next < ids.length) {
+                Iterator<Garment> items = itemsAfter(ids[next], last);
+                while (count > 0 && items.hasNext()) {
+                    passed = items.next();
+                    action.accept(passed);
+                    valueCents += ClosetAnalytics.costCents(passed);
+                    count--;
+                }
+                if (items.hasNext()) {
+                    // the closet may change the garment before the next read, so where to
+                    // go on from is kept as it is now
+                    last = changed.containsKey(passed) ? changed.get(passed) : new Garment(passed);
+                } else {
+                    next++;
+                    last = null;
+                }
+            }
+            return next < ids.length;
+        }
+
+        // Returns the value of the garments read so far
+        double getTotalValue() {
+            return valueCents / 100.0;
+        }
+
+        // Prints every garment of the version, like Closet.printCloset
+        void printCloset(TableRenderer table) {
+            table.header();
+            read(Integer.MAX_VALUE, table::row);
+            table.line(" ");
+            table.line("Total closet value: $" + getTotalValue());
+        }
+
+        @Override
+        public void close() {
+            versions.remove(this);
+        }
+
+        // Keeps the given garment as it is, if it has not changed since the version was
+        // opened, before the closet changes it. A garment not in the closet is about to
+        // be added, so it was not there either.
+        private void keep(Garment item, boolean inCloset) {
+            if (!changed.containsKey(item)) {
+                Garment copy = inCloset ? new Garment(item) : null;
+                changed.put(item, copy);
+                if (copy != null) {
+                    copies.computeIfAbsent(copy.getCategoryId(), id -> new TreeSet<>()).add(copy);
+                }
+            }
+        }
+
+        // Undoes the given change in the version, see versionBefore
+        private void undo(ClosetHistory.Change change) {
+            Garment[] items = change.getItems();
+            for (int i = items.length - 1; i >= 0; i--) {
+                Garment item = items[i];
+                Garment copy = changed.containsKey(item) ? changed.get(item) : item;
+                if (copy != null && copy != item) {
+                    copies.get(copy.getCategoryId()).remove(copy);
+                }
+                if (change.adds(i)) {
+                    copy = null;
+                } else if (copy == item || copy == null) {
+                    copy = new Garment(item);
+                }
+                if (change.getKind() == ClosetHistory.Kind.WEAR) {
+                    copy.removeLastWear(change.getPreviousLastWorn());
+                }
+                changed.put(item, copy);
+                if (copy != null) {
+                    copies.computeIfAbsent(copy.getCategoryId(), id -> new TreeSet<>()).add(copy);
+                }
+            }
+        }
+
+        // Returns the garments of the version in the given category after the given one,
+        // or all of them if it is null, in order
+        private Iterator<Garment> itemsAfter(int id, Garment after) {
+            SortedSet<Garment> inCloset = id < sections.length && sections[id] != null
+                    ? sections[id].all() : Collections.emptySortedSet();
+            SortedSet<Garment> kept = copies.containsKey(id) ? copies.get(id) : Collections.emptySortedSet();
+            if (after != null) {
+                inCloset = inCloset.tailSet(after);
+                kept = kept.tailSet(after);
+            }
+            Iterator<Garment> fromCloset = inCloset.iterator();
+            Iterator<Garment> fromCopies = kept.iterator();
+            return new Iterator<>() {
+                private Garment nextInCloset = advance(fromCloset);
+                private Garment nextCopy = advance(fromCopies);
+
+                @Override
+                public boolean hasNext() {
+                    return nextInCloset != null || nextCopy != null;
+                }
+
+                @Override
+                public Garment next() {
+                    Garment item;
+                    if (nextCopy == null || nextInCloset != null && nextInCloset.compareTo(nextCopy) < 0) {
+                        if (nextInCloset == null) {
+                            throw new NoSuchElementException();
+                        }
+                        item = nextInCloset;
+                        nextInCloset = advance(fromCloset);
+                    } else {
+                        item = nextCopy;
+                        nextCopy = advance(fromCopies);
+                    }
+                    return item;
+                }
+
+                // Returns the next garment of the version from the given iterator, skipping
+                // the closet's garments that changed and the one last read
+                private Garment advance(Iterator<Garment> items) {
+                    while (items.hasNext()) {
+                        Garment item = items.next();
+                        if ((items != fromCloset || !changed.containsKey(item))
+                                && (after == null || item.compareTo(after) != 0)) {
+                            return item;
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+
+    // A read-only sorted set over an array of garments already sorted by the given
+    // comparator, or by their natural order if it is null.
+    // Adding one of these to an empty TreeSet with the same comparator builds the tree
+    // in a single linear pass instead of inserting and rebalancing one garment at a time.
+    static class SortedGarments extends AbstractSet<Garment> implements SortedSet<Garment> {
+        private final Garment[] items;
+        private final Comparator<? super Garment> comparator;
+        // the part of the array this set covers, from and up to but not including to
+        private final int from;
+        private final int to;
+
+        SortedGarments(Garment[] items, Comparator<? super Garment> comparator) {
+            this(items, comparator, 0, items.length);
+        }
+
+        private SortedGarments(Garment[] items, Comparator<? super Garment> comparator, int from, int to) {
+            this.items = items;
+            this.comparator = comparator;
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        @Override
+        public Iterator<Garment> iterator() {
+            return Arrays.asList(items).subList(from, to).iterator();
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Garment)) {
+                return false;
+            }
+            int i = lowerBound((Garment) o);
+            return i < to && compare(items[i], (Garment) o) == 0;
+        }
+
+        @Override
+        public Comparator<? super Garment> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public Garment first() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return items[from];
+        }
+
+        @Override
+        public Garment last() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return items[to - 1];
+        }
+
+        @Override
+        public SortedSet<Garment> subSet(Garment fromElement, Garment toElement) {
+            return new SortedGarments(items, comparator, lowerBound(fromElement), lowerBound(toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> headSet(Garment toElement) {
+            return new SortedGarments(items, comparator, from, lowerBound(toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> tailSet(Garment fromElement) {
+            return new SortedGarments(items, comparator, lowerBound(fromElement), to);
+        }
+
+        // Returns the position of the first garment of this set that does not sort
+        // before the given one, or to if there is none
+        private int lowerBound(Garment item) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(items[middle], item) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int compare(Garment a, Garment b) {
+            return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+        }
+    }
+
+    // A read-only sorted set of the garments of a category kept in memory together with
+    // those still in the snapshot file, in their natural order. Nothing is copied: the
+    // iterator walks both sets side by side, and the views between two garments are
+    // the same views of both sets merged again.
+    private static class MergedGarments extends AbstractSet<Garment> implements SortedSet<Garment> {
+        private final SortedSet<Garment> memory;
+        private final SortedSet<Garment> stored;
+
+        MergedGarments(SortedSet<Garment> memory, SortedSet<Garment> stored) {
+            this.memory = memory;
+            this.stored = stored;
+        }
+
+        @Override
+        public Iterator<Garment> iterator() {
+            return new Iterator<>() {
+                private final Iterator<Garment> fromMemory = memory.iterator();
+                private final Iterator<Garment> fromStored = stored.iterator();
+                private Garment nextInMemory = fromMemory.hasNext() ? fromMemory.next() : null;
+                private Garment nextStored = fromStored.hasNext() ? fromStored.next() : null;
+
+                @Override
+                public boolean hasNext() {
+                    return nextInMemory != null || nextStored != null;
+                }
+
+                @Override
+                public Garment next() {
+                    Garment item;
+                    if (nextStored == null || nextInMemory != null && nextInMemory.compareTo(nextStored) < 0) {
+                        if (nextInMemory == null) {
+                            throw new NoSuchElementException();
+                        }
+                        item = nextInMemory;
+                        nextInMemory = fromMemory.hasNext() ? fromMemory.next() : null;
+                    } else {
+                        item = nextStored;
+                        nextStored = fromStored.hasNext() ? fromStored.next() : null;
+                    }
+                    return item;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return memory.size() + stored.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return memory.contains(o) || stored.contains(o);
+        }
+
+        @Override
+        public Comparator<? super Garment> comparator() {
+            return null;
+        }
+
+        @Override
+        public Garment first() {
+            if (memory.isEmpty() || stored.isEmpty()) {
+                return memory.isEmpty() ? stored.first() : memory.first();
+            }
+            Garment inMemory = memory.first();
+            Garment inFile = stored.first();
+            return inMemory.compareTo(inFile) < 0 ? inMemory : inFile;
+        }
+
+        @Override
+        public Garment last() {
+            if (memory.isEmpty() || stored.isEmpty()) {
+                return memory.isEmpty() ? stored.last() : memory.last();
+            }
+            Garment inMemory = memory.last();
+            Garment inFile = stored.last();
+            return inMemory.compareTo(inFile) > 0 ? inMemory : inFile;
+        }
+
+        @Override
+        public SortedSet<Garment> subSet(Garment fromElement, Garment toElement) {
+            return new MergedGarments(memory.subSet(fromElement, toElement), stored.subSet(fromElement, toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> headSet(Garment toElement) {
+            return new MergedGarments(memory.headSet(toElement), stored.headSet(toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> tailSet(Garment fromElement) {
+            return new MergedGarments(memory.tailSet(fromElement), stored.tailSet(fromElement));
+        }
+    }
+
+    // Occurs if the item the user wants to remove does not exist,
+    // allows the user to either try again or return to main menu.
+    private String nameNotFound() {
+        System.out.println("Name not found.");
+        System.out.println("NOTE: You must enter the exact name of the item you would like to select.");
+        System.out.println("Be careful to check for whitespace, not case sensitive.");
+        System.out.println("Please type the name of the item you would like to select, or " +
+                "type 'EXIT' to return to main menu");
+        String response = console.nextLine();
+        if (!response.equalsIgnoreCase("EXIT")) {
+            return response;
+        }
+        return null;
+    }
+
+    // Reads a price from the user, asking again until a valid number is entered
+    private double readPrice() {
+        while (true) {
+            try {
+                double price = console.nextPrice();
+                if (!Double.isNaN(price) && !Double.isInfinite(price)) {
+                    return price;
+                }
+            } catch (NumberFormatException e) {
+                // asked again below
+            }
+            System.out.println("Invalid price. Please type a valid number value (decimals accepted).");
+            System.out.print("Price: ");
+        }
+    }
+
+    // Reads the user's choice from a numbered list of options from 1 to max.
+    // Asks again until the user enters a valid choice.
+    private int readChoice(int max) {
+        int choice = parseChoice(max);
+        if (choice == 0) {
+            choice = validSelection(max);
+        }
+        return choice;
+    }
+
+    // Reads a line and returns the choice written on it, or 0 if it is not a number from 1 to max
+    private int parseChoice(int max) {
+        try {
+            int choice = console.nextInt();
+            if (choice <= max && choice > 0) {
+                return choice;
+            }
+        } catch (NumberFormatException e) {
+            // not a number, treated the same as a number out of range
+        }
+        return 0;
+    }
+
+    // Makes sure the user makes a valid choice during number selection
+    public int validSelection(int max) {
+        int choice = 0;
+        while (choice == 0) {
+            System.out.println("Invalid choice. Please try again.");
+            System.out.println("Enter your choice: ");
+            choice = parseChoice(max);
+        }
+        return choice;
+    }
+
+    // The Digital Closet program's main menu.
+    // Allows the user to choose which action they would like to do.
+    // Each action returns here when it is done, and the menu is shown again until
+    // the user quits or there are no more commands to read.
+    public void mainWindow() {
+        boolean running = true;
+        while (running) {
+            try {
+                running = mainWindowChoice();
+            } catch (NoSuchElementException e) {
+                // the commands ran out in the middle of an action
+                running = false;
+            }
+        }
+        System.out.println("Have a nice day!");
+        close();
+        console.close();
+    }
+
+    // Saves the closet and closes its journal
+    void close() {
+        if (journal != null) {
+            journal.close(this);
+        }
+    }
+
+    // Returns the total value of every garment in the closet
+    public double getTotalValue() {
+        return analytics().getValueCents(null) / 100.0;
+    }
+
+    // Shows the main menu once and runs the action the user chooses.
+    // Returns false if the user chose to quit or there are no more commands to read.
+    private boolean mainWindowChoice() {
+        System.out.println("Welcome to the main window.");
+        System.out.println(" ");
+
+        System.out.println("Please select from the following actions:");
+        System.out.println(" ");
+
+        System.out.println("1) Add Item");
+        System.out.println("2) Log Item"); // log an item as worn
+        System.out.println("3) Search Items");
+        System.out.println("4) Remove Item");
+        System.out.println("5) Display Items");
+        System.out.println("6) Import Items");
+        System.out.println("7) Manage Categories");
+        System.out.println("8) Undo or Redo Changes");
+        System.out.println("9) Find Duplicate Items");
+        System.out.println("10) Quit");
+        System.out.print("Your choice: ");
+
+        if (!console.hasNextLine()) {
+            return false;
         }
+        int choice = readChoice(10);
 
         if (choice == 1) {
             add();
@@ -427,8 +2267,16 @@ public class Closet {
         } else if (choice == 5) {
             display();
         } else if (choice == 6) {
-            System.out.println("Have a nice day!");
-            console.close();
+            importItems();
+        } else if (choice == 7) {
+            manageCategories();
+        } else if (choice == 8) {
+            changeHistory();
+        } else if (choice == 9) {
+            findDuplicates();
+        } else if (choice == 10) {
+            return false;
         }
+        return true;
     }
 }
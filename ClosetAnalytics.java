@@ -0,0 +1,522 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Class that keeps statistics about a closet up to date as it changes, so they can be
+// read at any time without looking at every garment. The closet calls add, remove,
+// beforeWear and afterWear every time one of its garments changes.
+// Kept for each category and for the whole closet:
+// - the number of items, and how many of them have been worn
+// - the value of the items, in cents
+// - the average and median price per wear of the worn items
+// The worn items of each category are also kept sorted by price per wear, highest
+// first, so the K worst can be listed by reading the first K. Garments still in the
+// closet's snapshot file are counted from the file and kept by their number in it, so
+// they are not built or kept in memory, see addStored.
+// Prices per wear are counted in cents, rounded the same way as Garment.getPricePerWear.
+// Passing a null type to any of the getters returns the statistic for the whole closet.
+public class ClosetAnalytics {
+
+    // orders worn garments by price per wear, highest first
+    static final Comparator<Garment> BY_PRICE_PER_WEAR = (a, b) -> {
+        int byPrice = Long.compare(pricePerWearCents(b), pricePerWearCents(a));
+        if (byPrice != 0) {
+            return byPrice;
+        }
+        int byCategory = Integer.compare(a.getCategoryId(), b.getCategoryId());
+        if (byCategory != 0) {
+            return byCategory;
+        }
+        return a.compareTo(b);
+    };
+
+    // the categories of the closet, used to look up the type asked for
+    private final CategoryRegistry categories;
+    private final Stats whole;
+    // the statistics of each category, indexed by category id, or null if it has had no items
+    private Stats[] byType;
+
+    // The statistics of one category, or of the whole closet
+    private static class Stats {
+        private int items;
+        private int worn;
+        private long cents;
+        private long pricePerWearCents;
+        private final Median median = new Median();
+        // worn garments by price per wear; only kept for categories
+        private final TreeSet<Garment> worst = new TreeSet<>(BY_PRICE_PER_WEAR);
+        // the category's garments in the snapshot file, and the numbers of the worn ones
+        // by price per wear, highest first; those taken out of the file are skipped,
+        // since the closet counts them as garments once they are
+        private ClosetSnapshot.StoredGarments stored;
+        private int[] storedWorst = new int[0];
+    }
+
+    // Constructs the statistics of an empty closet with the given categories
+    public ClosetAnalytics(CategoryRegistry categories) {
+        this.categories = categories;
+        whole = new Stats();
+        byType = new Stats[0];
+    }
+
+    // Counts a garment added to the closet
+    public void add(Garment item) {
+        Stats category = category(item);
+        addItem(whole, item);
+        addItem(category, item);
+        if (item.getTimesWorn() > 0) {
+            addWorn(whole, item);
+            addWorn(category, item);
+            category.worst.add(item);
+        }
+    }
+
+    // Counts a batch of garments added to the closet.
+    // The worn garments are sorted by price per wear first, so statistics that were
+    // empty are built in one pass instead of one garment at a time.
+    public void addAll(List<Garment> items) {
+        Map<Integer, List<Garment>> wornByType = new HashMap<>();
+        int worn = 0;
+        for (Garment item : items) {
+            addItem(whole, item);
+            addItem(category(item), item);
+            if (item.getTimesWorn() > 0) {
+                wornByType.computeIfAbsent(item.getCategoryId(), id -> new ArrayList<>()).add(item);
+                worn++;
+            }
+        }
+        long[] allPrices = new long[worn];
+        int filled = 0;
+        for (Map.Entry<Integer, List<Garment>> entry : wornByType.entrySet()) {
+            Stats category = byType[entry.getKey()];
+            Garment[] sorted = entry.getValue().toArray(new Garment[0]);
+            Arrays.sort(sorted, BY_PRICE_PER_WEAR);
+            // lowest price per wear first
+            long[] prices = new long[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                prices[i] = pricePerWearCents(sorted[sorted.length - 1 - i]);
+            }
+            addWorn(category, prices);
+            System.arraycopy(prices, 0, allPrices, filled, prices.length);
+            filled += prices.length;
+            if (category.worst.isEmpty()) {
+                category.worst.addAll(new Closet.SortedGarments(sorted, BY_PRICE_PER_WEAR));
+            } else {
+                category.worst.addAll(Arrays.asList(sorted));
+            }
+        }
+        Arrays.sort(allPrices);
+        addWorn(whole, allPrices);
+    }
+
+    // Counts the garments of the category with the given id that are still in the
+    // snapshot file, reading their cost and wears from the file. Must be called at most
+    // once for a category, before any of its garments are taken out of the file.
+    public void addStored(int categoryId, ClosetSnapshot.StoredGarments garments) {
+        Stats category = category(categoryId);
+        int first = garments.firstRow();
+        int[] wornRows = new int[garments.endRow() - first];
+        long[] prices = new long[wornRows.length];
+        int worn = 0;
+        for (int row = first; row < garments.endRow(); row++) {
+            if (!garments.holds(row)) {
+                continue;
+            }
+            long cents = Math.round(garments.cost(row) * 100);
+            whole.items++;
+            whole.cents += cents;
+            category.items++;
+            category.cents += cents;
+            int timesWorn = garments.timesWorn(row);
+            if (timesWorn > 0) {
+                prices[row - first] = pricePerWearCents(garments.cost(row), timesWorn);
+                wornRows[worn++] = row;
+            }
+        }
+        wornRows = Arrays.copyOf(wornRows, worn);
+        // rows are in the garments' order, which breaks ties between equal prices
+        sortRows(wornRows, prices, first, new int[worn], 0, worn);
+        long[] sorted = new long[worn];
+        for (int i = 0; i < worn; i++) {
+            sorted[i] = prices[wornRows[worn - 1 - i] - first];
+        }
+        addWorn(category, sorted);
+        addWorn(whole, sorted);
+        category.stored = garments;
+        category.storedWorst = wornRows;
+    }
+
+    // Stops counting a garment removed from the closet
+    public void remove(Garment item) {
+        Stats category = category(item);
+        removeItem(whole, item);
+        removeItem(category, item);
+        if (item.getTimesWorn() > 0) {
+            removeWorn(whole, item);
+            removeWorn(category, item);
+            category.worst.remove(item);
+        }
+    }
+
+    // Must be called before a wear of the garment is logged,
+    // since its price per wear is about to change
+    public void beforeWear(Garment item) {
+        if (item.getTimesWorn() > 0) {
+            Stats category = category(item);
+            removeWorn(whole, item);
+            removeWorn(category, item);
+            category.worst.remove(item);
+        }
+    }
+
+    // Must be called after a wear of the garment has been logged
+    public void afterWear(Garment item) {
+        if (item.getTimesWorn() > 0) {
+            Stats category = category(item);
+            addWorn(whole, item);
+            addWorn(category, item);
+            category.worst.add(item);
+        }
+    }
+
+    // Returns the number of items of the given type
+    public int getItemCount(String type) {
+        return stats(type).items;
+    }
+
+    // Returns the number of items of the given type that have been worn
+    public int getWornCount(String type) {
+        return stats(type).worn;
+    }
+
+    // Returns the number of items of the given type that have never been worn
+    public int getUnwornCount(String type) {
+        Stats stats = stats(type);
+        return stats.items - stats.worn;
+    }
+
+    // Returns the value of the items of the given type, in cents
+    public long getValueCents(String type) {
+        return stats(type).cents;
+    }
+
+    // Returns the average price per wear of the worn items of the given type,
+    // or NaN if none have been worn
+    public double getAveragePricePerWear(String type) {
+        Stats stats = stats(type);
+        if (stats.worn == 0) {
+            return Double.NaN;
+        }
+        return stats.pricePerWearCents / (double) stats.worn / 100;
+    }
+
+    // Returns the median price per wear of the worn items of the given type,
+    // or NaN if none have been worn
+    public double getMedianPricePerWear(String type) {
+        return stats(type).median.get() / 100;
+    }
+
+    // Returns up to k worn items of the given type with the highest price per wear, highest first
+    public List<Garment> getWorstPricePerWear(String type, int k) {
+        List<Garment> worst = new ArrayList<>(k);
+        if (type != null) {
+            Iterator<Garment> items = worst(stats(type));
+            while (worst.size() < k && items.hasNext()) {
+                worst.add(items.next());
+            }
+            return worst;
+        }
+        // merge the lists of every category, which are already in order
+        List<Iterator<Garment>> lists = new ArrayList<>();
+        List<Garment> heads = new ArrayList<>();
+        for (Stats category : byType) {
+            if (category == null) {
+                continue;
+            }
+            Iterator<Garment> items = worst(category);
+            if (items.hasNext()) {
+                lists.add(items);
+                heads.add(items.next());
+            }
+        }
+        while (worst.size() < k && !heads.isEmpty()) {
+            int best = 0;
+            for (int i = 1; i < heads.size(); i++) {
+                if (BY_PRICE_PER_WEAR.compare(heads.get(i), heads.get(best)) < 0) {
+                    best = i;
+                }
+            }
+            worst.add(heads.get(best));
+            if (lists.get(best).hasNext()) {
+                heads.set(best, lists.get(best).next());
+            } else {
+                lists.remove(best);
+                heads.remove(best);
+            }
+        }
+        return worst;
+    }
+
+    // Returns the worn garments of a category by price per wear, highest first, merging
+    // those in memory with those still in the snapshot file, which are built as they
+    // are read
+    private static Iterator<Garment> worst(Stats category) {
+        Iterator<Garment> inMemory = category.worst.iterator();
+        return new Iterator<>() {
+            private int next;
+            private Garment nextInMemory = inMemory.hasNext() ? inMemory.next() : null;
+            private Garment nextStored = stored();
+
+            @Override
+            public boolean hasNext() {
+                return nextInMemory != null || nextStored != null;
+            }
+
+            @Override
+            public Garment next() {
+                Garment item;
+                if (nextStored == null || nextInMemory != null
+                        && BY_PRICE_PER_WEAR.compare(nextInMemory, nextStored) < 0) {
+                    if (nextInMemory == null) {
+                        throw new NoSuchElementException();
+                    }
+                    item = nextInMemory;
+                    nextInMemory = inMemory.hasNext() ? inMemory.next() : null;
+                } else {
+                    item = nextStored;
+                    nextStored = stored();
+                }
+                return item;
+            }
+
+            // Returns the next worn garment still in the file, or null if there is none
+            private Garment stored() {
+                while (next < category.storedWorst.length) {
+                    int row = category.storedWorst[next++];
+                    if (category.stored.holds(row)) {
+                        return category.stored.garment(row);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    // Sorts the rows between from and to by the prices of the rows, highest first, and
+    // by row number between equal prices. prices holds the price of each row from first.
+    private static void sortRows(int[] rows, long[] prices, int first, int[] spare, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortRows(rows, prices, first, spare, from, middle);
+        sortRows(rows, prices, first, spare, middle, to);
+        System.arraycopy(rows, from, spare, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right == to || left < middle && prices[spare[left] - first] >= prices[spare[right] - first]) {
+                rows[i] = spare[left++];
+            } else {
+                rows[i] = spare[right++];
+            }
+        }
+    }
+
+    // Returns the amount of cents written in dollars, such as 1250 as 12.50
+    public static String dollars(long cents) {
+        long whole = Math.abs(cents) / 100;
+        long fraction = Math.abs(cents) % 100;
+        return (cents < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    // Returns the cost of the garment in whole cents
+    static long costCents(Garment item) {
+        return Math.round(item.getCost() * 100);
+    }
+
+    // Returns the price per wear of a worn garment in whole cents
+    static long pricePerWearCents(Garment item) {
+        return pricePerWearCents(item.getCost(), item.getTimesWorn());
+    }
+
+    private static long pricePerWearCents(double cost, int timesWorn) {
+        return Math.round((cost / timesWorn) * 100);
+    }
+
+    private Stats stats(String type) {
+        if (type == null) {
+            return whole;
+        }
+        int id = categories.id(type);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+        if (id >= byType.length || byType[id] == null) {
+            // no items of this category have been counted yet
+            return new Stats();
+        }
+        return byType[id];
+    }
+
+    // Returns the statistics of the garment's category, adding them if it is the first
+    private Stats category(Garment item) {
+        return category(item.getCategoryId());
+    }
+
+    // Returns the statistics of the category with the given id, adding them if it is the first
+    private Stats category(int id) {
+        if (id >= byType.length) {
+            byType = Arrays.copyOf(byType, Math.max(id + 1, byType.length * 2));
+        }
+        if (byType[id] == null) {
+            byType[id] = new Stats();
+        }
+        return byType[id];
+    }
+
+    private static void addItem(Stats stats, Garment item) {
+        stats.items++;
+        stats.cents += costCents(item);
+    }
+
+    private static void removeItem(Stats stats, Garment item) {
+        stats.items--;
+        stats.cents -= costCents(item);
+    }
+
+    private static void addWorn(Stats stats, Garment item) {
+        long pricePerWear = pricePerWearCents(item);
+        stats.worn++;
+        stats.pricePerWearCents += pricePerWear;
+        stats.median.add(pricePerWear);
+    }
+
+    // Counts the worn garments with the given prices per wear, which must be sorted
+    private static void addWorn(Stats stats, long[] sortedPrices) {
+        for (long pricePerWear : sortedPrices) {
+            stats.pricePerWearCents += pricePerWear;
+        }
+        stats.worn += sortedPrices.length;
+        stats.median.addAll(sortedPrices);
+    }
+
+    private static void removeWorn(Stats stats, Garment item) {
+        long pricePerWear = pricePerWearCents(item);
+        stats.worn--;
+        stats.pricePerWearCents -= pricePerWear;
+        stats.median.remove(pricePerWear);
+    }
+
+    // Keeps the median of a changing collection of numbers.
+    // The lower and upper halves are kept as counts of each number, with the lower
+    // half never smaller than the upper half and at most one larger, so the median
+    // is always at the top of the lower half or halfway between the two halves.
+    private static class Median {
+        private final TreeMap<Long, Integer> lower = new TreeMap<>();
+        private final TreeMap<Long, Integer> upper = new TreeMap<>();
+        private int lowerSize;
+        private int upperSize;
+        private double median = Double.NaN;
+
+        void add(long value) {
+            if (lowerSize == 0 || value <= lower.lastKey()) {
+                lower.merge(value, 1, Integer::sum);
+                lowerSize++;
+            } else {
+                upper.merge(value, 1, Integer::sum);
+                upperSize++;
+            }
+            balance();
+        }
+
+        void remove(long value) {
+            if (lowerSize > 0 && value <= lower.lastKey()) {
+                decrement(lower, value);
+                lowerSize--;
+            } else {
+                decrement(upper, value);
+                upperSize--;
+            }
+            balance();
+        }
+
+        // Adds numbers that are already sorted. If there were no numbers yet, the
+        // halves are filled directly instead of one number at a time.
+        void addAll(long[] sorted) {
+            if (lowerSize + upperSize > 0) {
+                for (long value : sorted) {
+                    add(value);
+                }
+                return;
+            }
+            int half = (sorted.length + 1) / 2;
+            addRuns(lower, sorted, 0, half);
+            addRuns(upper, sorted, half, sorted.length);
+            lowerSize = half;
+            upperSize = sorted.length - half;
+            updateMedian();
+        }
+
+        double get() {
+            return median;
+        }
+
+        // Counts the sorted numbers between from and to, one map entry per distinct number
+        private static void addRuns(TreeMap<Long, Integer> counts, long[] sorted, int from, int to) {
+            int start = from;
+            for (int i = from + 1; i <= to; i++) {
+                if (i == to || sorted[i] != sorted[start]) {
+                    counts.put(sorted[start], i - start);
+                    start = i;
+                }
+            }
+        }
+
+        private void balance() {
+            if (lowerSize > upperSize + 1) {
+                long top = lower.lastKey();
+                decrement(lower, top);
+                lowerSize--;
+                upper.merge(top, 1, Integer::sum);
+                upperSize++;
+            } else if (upperSize > lowerSize) {
+                long bottom = upper.firstKey();
+                decrement(upper, bottom);
+                upperSize--;
+                lower.merge(bottom, 1, Integer::sum);
+                lowerSize++;
+            }
+            updateMedian();
+        }
+
+        private void updateMedian() {
+            if (lowerSize == 0) {
+                median = Double.NaN;
+            } else if (lowerSize > upperSize) {
+                median = lower.lastKey();
+            } else {
+                median = (lower.lastKey() + upper.firstKey()) / 2.0;
+            }
+        }
+
+        private static void decrement(TreeMap<Long, Integer> counts, long value) {
+            Integer count = counts.get(value);
+            if (count == null) {
+                throw new IllegalStateException("Price per wear " + value + " was never counted");
+            }
+            if (count == 1) {
+                counts.remove(value);
+            } else {
+                counts.put(value, count - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+// Measures how the throughput of a ConcurrentCloset scales with the number of threads.
+// The single-threaded hot paths of Closet and Garment are measured by the JMH
+// benchmarks in the jmh folder instead.
+//
+// Usage: java ClosetBenchmark [size] [--threads n]
+//   size        number of garments in the closet, default 1000000
+//   --threads   most threads to log wears from, default 16
+//
+// Wears are logged from 1, 2, 4, ... threads at once, while other garments are
+// removed and added back. ConcurrentClosetStressTest checks the closet stays
+// consistent under the same load.
+public class ClosetBenchmark {
+
+    private static final String[] WORDS = {"black", "white", "linen", "shirt", "denim", "jacket", "wool",
+            "red", "boots", "silk", "scarf", "vintage", "cotton", "navy", "striped", "leather"};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final long ROUND_NANOS = 500_000_000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = 1_000_000;
+        int maxThreads = 16;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                i++;
+                maxThreads = Integer.parseInt(args[i]);
+            } else {
+                size = Integer.parseInt(args[i]);
+            }
+        }
+        runConcurrent(size, maxThreads);
+    }
+
+    // Logs wears on a ConcurrentCloset from more and more threads and prints how the
+    // throughput scales
+    private static void runConcurrent(int size, int maxThreads) throws InterruptedException {
+        Random random = new Random(size);
+        ConcurrentCloset closet = new ConcurrentCloset();
+        List<String> types = closet.getCategories();
+        Garment[] items = new Garment[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = new Garment(randomName(random, i), types.get(i % types.size()),
+                    random.nextInt(20000) / 100.0, randomName(random, i));
+            closet.addGarment(items[i]);
+        }
+        System.out.println("ConcurrentCloset with " + size + " items, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        System.out.printf("%-8s %16s %10s%n", "Threads", "ops/sec", "speedup");
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            concurrentRound(closet, items, maxThreads);
+        }
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double perSecond = concurrentRound(closet, items, threads) / (ROUND_NANOS / 1e9);
+            if (threads == 1) {
+                single = perSecond;
+            }
+            System.out.printf(Locale.ROOT, "%-8d %16.0f %9.2fx%n", threads, perSecond, perSecond / single);
+        }
+    }
+
+    // Runs one round from the given number of threads. Each operation logs a wear of a
+    // random garment, or one time in ten removes a random garment or adds it back.
+    // Returns the number of operations.
+    private static long concurrentRound(ConcurrentCloset closet, Garment[] items, int threads)
+            throws InterruptedException {
+        long[] operations = new long[threads];
+        Thread[] workers = new Thread[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(worker);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.nanoTime() + ROUND_NANOS;
+                long count = 0;
+                while ((count & 255) != 0 || System.nanoTime() < end) {
+                    Garment item = items[random.nextInt(items.length)];
+                    int pick = random.nextInt(20);
+                    if (pick == 0) {
+                        closet.removeGarment(item.getType(), item.getName());
+                    } else if (pick == 1) {
+                        closet.addGarment(item);
+                    } else {
+                        closet.wearGarment(item.getType(), item.getName(), 17000 + random.nextInt(3000));
+                    }
+                    count++;
+                }
+                operations[worker] = count;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long total = 0;
+        for (long count : operations) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Returns a name made of two random words followed by a number
+    private static String randomName(Random random, int number) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + number;
+    }
+}
@@ -0,0 +1,311 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+// Class that keeps the most recent changes made to a closet, so they can be undone and
+// redone and the closet can be shown as it was before them.
+// Each change keeps only what it changed: the garments it added or removed, or the
+// garment it logged a wear of and the day it had been last worn before. A merge of
+// duplicates is one change, removing the garments and adding the merged one, so it is
+// undone and redone as a whole. Keeping the last
+// MAX_CHANGES changes therefore costs memory for those changes, not for copies of the
+// closet, and undoing or redoing a change only touches the garments it changed.
+// Changes are saved in the closet's journal along with the records of what they did,
+// and written again after the journal is compacted, so they outlive the program.
+public class ClosetHistory {
+
+    // the most changes that are kept; the oldest is forgotten when another is made
+    public static final int MAX_CHANGES = 10_000;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    // The kinds of change that are kept
+    public enum Kind {
+        ADD,
+        REMOVE,
+        WEAR,
+        MERGE
+    }
+
+    // One change made to the closet
+    public static class Change {
+        private final Kind kind;
+        private final Garment[] items;
+        private final long day;
+        private final long previousLastWorn;
+        private final long time;
+
+        private Change(Kind kind, Garment[] items, long day, long previousLastWorn, long time) {
+            this.kind = kind;
+            this.items = items;
+            this.day = day;
+            this.previousLastWorn = previousLastWorn;
+            this.time = time;
+        }
+
+        private Change(Kind kind, Garment[] items, long day, long previousLastWorn) {
+            this(kind, items, day, previousLastWorn, System.currentTimeMillis());
+        }
+
+        // Returns a change read back from a journal, made at the given time
+        static Change restore(Kind kind, Garment[] items, long day, long previousLastWorn, long time) {
+            return new Change(kind, items, day, previousLastWorn, time);
+        }
+
+        // Returns the same change made to the given garments instead
+        Change withItems(Garment[] items) {
+            return new Change(kind, items, day, previousLastWorn, time);
+        }
+
+        // Returns a change adding the given garments, all of the same type
+        public static Change add(Garment... items) {
+            return new Change(Kind.ADD, items, 0, 0);
+        }
+
+        // Returns a change removing the given garment
+        public static Change remove(Garment item) {
+            return new Change(Kind.REMOVE, new Garment[] {item}, 0, 0);
+        }
+
+        // Returns a change replacing the given garments with the one merged from them
+        public static Change merge(List<Garment> items, Garment merged) {
+            Garment[] all = items.toArray(new Garment[items.size() + 1]);
+            all[items.size()] = merged;
+            return new Change(Kind.MERGE, all, 0, 0);
+        }
+
+        // Returns a change logging a wear of the given garment on the given day, which had
+        // been last worn on previousLastWorn (days since 01/01/1970)
+        public static Change wear(Garment item, long day, long previousLastWorn) {
+            return new Change(Kind.WEAR, new Garment[] {item}, day, previousLastWorn);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        // Returns the garments the change added or removed, or the one it logged a wear of.
+        // A merge holds the garments it removed followed by the one it added.
+        // The array must not be changed.
+        Garment[] getItems() {
+            return items;
+        }
+
+        // Returns true if the change added its garment at the given index
+        boolean adds(int index) {
+            return kind == Kind.ADD || kind == Kind.MERGE && index == items.length - 1;
+        }
+
+        // Returns true if the change removed its garment at the given index
+        boolean removes(int index) {
+            return kind == Kind.REMOVE || kind == Kind.MERGE && index < items.length - 1;
+        }
+
+        // Returns the day a wear was logged on
+        public long getDay() {
+            return day;
+        }
+
+        // Returns the day the garment had been last worn before a wear was logged
+        public long getPreviousLastWorn() {
+            return previousLastWorn;
+        }
+
+        // Returns the time the change was made, in milliseconds since 01/01/1970
+        public long getTime() {
+            return time;
+        }
+
+        // Returns a short description of the change, such as "Added Black Tee (tops)"
+        public String describe() {
+            Garment first = items[0];
+            String item = first.getName() + " (" + first.getType() + ")";
+            if (kind == Kind.ADD) {
+                return items.length == 1 ? "Added " + item
+                        : "Imported " + items.length + " items (" + first.getType() + ")";
+            } else if (kind == Kind.REMOVE) {
+                return "Removed " + item;
+            } else if (kind == Kind.MERGE) {
+                Garment merged = items[items.length - 1];
+                return "Merged " + (items.length - 1) + " items into " + merged.getName()
+                        + " (" + merged.getType() + ")";
+            }
+            return "Logged a wear of " + item + " on " + LocalDate.ofEpochDay(day).format(DATE_FORMAT);
+        }
+
+        // Returns the time the change was made as MO/DA/YEAR HH:MM:SS
+        public String getTimeText() {
+            return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).format(TIME_FORMAT);
+        }
+    }
+
+    // changes that can be undone and changes that can be redone, most recent first
+    private final Deque<Change> done = new ArrayDeque<>();
+    private final Deque<Change> undone = new ArrayDeque<>();
+
+    // Keeps a change that was just made. Changes that were undone can no longer be redone.
+    public void record(Change change) {
+        undone.clear();
+        done.push(change);
+        if (done.size() > MAX_CHANGES) {
+            done.removeLast();
+        }
+    }
+
+    // Returns the most recent change, moving it to the changes that can be redone,
+    // or null if there is none
+    public Change undo() {
+        Change change = done.poll();
+        if (change != null) {
+            undone.push(change);
+        }
+        return change;
+    }
+
+    // Returns the change undone most recently, moving it back to the changes that can
+    // be undone, or null if there is none
+    public Change redo() {
+        Change change = undone.poll();
+        if (change != null) {
+            done.push(change);
+        }
+        return change;
+    }
+
+    // Returns up to the given number of the changes that can be undone, most recent first
+    public List<Change> recent(int count) {
+        List<Change> changes = new ArrayList<>(Math.min(count, done.size()));
+        Iterator<Change> newest = done.iterator();
+        while (changes.size() < count && newest.hasNext()) {
+            changes.add(newest.next());
+        }
+        return changes;
+    }
+
+    // Moves the most recent change to the changes that can be redone, as when it was
+    // undone, keeping the given copy of it instead. Used when the journal is read back,
+    // where an undone change is saved with everything needed to redo it.
+    void restoreUndo(Change change) {
+        if (done.poll() != null) {
+            undone.push(change);
+        }
+    }
+
+    // Adds every change that can be undone or redone to the journal, as they would be
+    // if they were made again: the changes that can be undone, oldest first, then those
+    // that can be redone, which are then undone again
+    void logTo(ClosetJournal journal) {
+        Iterator<Change> oldest = done.descendingIterator();
+        while (oldest.hasNext()) {
+            journal.logChange(oldest.next());
+        }
+        for (Change change : undone) {
+            journal.logChange(change);
+        }
+        Iterator<Change> lastUndone = undone.descendingIterator();
+        while (lastUndone.hasNext()) {
+            journal.logUndo(lastUndone.next());
+        }
+    }
+
+    // Points the changes read back from a journal at the garments of the closet.
+    // They are read with copies of the garments they changed, or only their names, while
+    // undoing or redoing a change changes the closet's own garment. live returns the
+    // garment of a type with a name in the closet, or null if there is none. Each name is
+    // followed from there back through the changes that can be undone, and forward
+    // through those that can be redone, to the garment it named at the time. A change
+    // that does not fit the closet is forgotten, along with every change before it.
+    void resolve(BiFunction<String, String, Garment> live) {
+        Deque<Change> resolved = new ArrayDeque<>();
+        Map<String, Garment> named = new HashMap<>();
+        for (Change change : done) {
+            Garment[] items = resolve(change, false, named, live);
+            if (items == null) {
+                break;
+            }
+            resolved.addLast(change.withItems(items));
+        }
+        done.clear();
+        done.addAll(resolved);
+        resolved.clear();
+        named.clear();
+        for (Change change : undone) {
+            Garment[] items = resolve(change, true, named, live);
+            if (items == null) {
+                break;
+            }
+            resolved.addLast(change.withItems(items));
+        }
+        undone.clear();
+        undone.addAll(resolved);
+    }
+
+    // Returns the garments the change made, or would make if redone, to the garments
+    // named as they are in named, or in the closet for names not in named, and updates
+    // named to before the change, or after it if redone. Returns null if the change
+    // does not fit, such as when it removed a garment that is still there.
+    private static Garment[] resolve(Change change, boolean redone, Map<String, Garment> named,
+                                     BiFunction<String, String, Garment> live) {
+        Garment[] items = change.items;
+        Garment[] found = new Garment[items.length];
+        for (int n = 0; n < items.length; n++) {
+            // a change is undone from its last garment to its first
+            int i = redone ? n : items.length - 1 - n;
+            String key = items[i].getType() + '\n' + items[i].getName().toLowerCase();
+            Garment item = named.containsKey(key) ? named.get(key)
+                    : live.apply(items[i].getType(), items[i].getName());
+            boolean adds = change.adds(i) ? redone : change.removes(i) && !redone;
+            if (adds) {
+                // the garment is there after the change is redone, or before a removal
+                if (item != null) {
+                    return null;
+                }
+                item = items[i];
+                named.put(key, item);
+            } else {
+                if (item == null) {
+                    return null;
+                }
+                if (change.kind != Kind.WEAR) {
+                    named.put(key, null);
+                }
+            }
+            found[i] = item;
+        }
+        return found;
+    }
+
+    // Returns the number of changes that can be undone
+    public int size() {
+        return done.size();
+    }
+
+    // Returns the number of changes that can be undone made after the given time
+    // (milliseconds since 01/01/1970)
+    public int countSince(long time) {
+        int count = 0;
+        for (Change change : done) {
+            if (change.time <= time) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // Forgets every change, as when the closet is changed in a way that cannot be undone
+    public void clear() {
+        done.clear();
+        undone.clear();
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+// Class that imports many garments into a closet at once from a file.
+// Two formats are accepted:
+// 1) CSV, one garment per line:  type,name,price,notes
+//    Fields containing commas or quotes can be wrapped in double quotes, with quotes
+//    inside them doubled. An optional first line starting with "type," is skipped.
+// 2) JSON lines, one object per line:  {"type": "tops", "name": "...", "price": 12.5, "notes": "..."}
+//
+// The file is read in chunks of lines that are parsed in parallel. The garments of each
+// type are then sorted and merged into the closet as one batch per category.
+public class ClosetImporter {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Closet closet;
+    // the categories of the closet
+    private final Set<String> types;
+    private int linesRead;
+    private int imported;
+    private int duplicates;
+    private int invalid;
+    private final List<String> errors;
+    private long elapsedNanos;
+
+    // Constructs an importer that adds garments to the given closet
+    public ClosetImporter(Closet closet) {
+        this.closet = closet;
+        this.types = new HashSet<>(closet.getCategories());
+        this.errors = new ArrayList<>();
+    }
+
+    // Imports every garment in the given file. Lines that cannot be read are skipped
+    // and reported, and garments whose name is already used in their category are skipped.
+    public void importFile(Path file) throws IOException {
+        long start = System.nanoTime();
+        Map<String, List<Garment>> byType = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Boolean json = null;
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            int chunkStart = 1;
+            String line = in.readLine();
+            while (line != null) {
+                linesRead++;
+                if (json == null && !line.isBlank()) {
+                    json = file.toString().toLowerCase().endsWith(".csv") ? false
+                            : line.trim().startsWith("{");
+                    if (!json && line.toLowerCase().startsWith("type,")) {
+                        line = "";
+                    }
+                }
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    parseChunk(chunk, chunkStart, Boolean.TRUE.equals(json), byType);
+                    chunkStart += chunk.size();
+                    chunk.clear();
+                }
+                line = in.readLine();
+            }
+            parseChunk(chunk, chunkStart, Boolean.TRUE.equals(json), byType);
+        }
+
+        int parsed = 0;
+        for (Map.Entry<String, List<Garment>> entry : byType.entrySet()) {
+            Garment[] items = entry.getValue().toArray(new Garment[0]);
+            Arrays.parallelSort(items);
+            parsed += items.length;
+            imported += closet.addSorted(entry.getKey(), items);
+        }
+        duplicates += parsed - imported;
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    // Prints how many garments were imported, how fast, and the first few problems found
+    public void printReport() {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Imported " + imported + " items from " + linesRead + " lines in "
+                + String.format("%.2f", seconds) + " seconds ("
+                + String.format("%.0f", imported / Math.max(seconds, 1e-9)) + " items/sec).");
+        if (duplicates > 0) {
+            System.out.println(duplicates + " items were skipped because an item with the same "
+                    + "name already exists in their category.");
+        }
+        if (invalid > 0) {
+            System.out.println(invalid + " lines could not be imported:");
+            for (String error : errors) {
+                System.out.println("  " + error);
+            }
+            if (invalid > errors.size()) {
+                System.out.println("  ...");
+            }
+        }
+    }
+
+    // Returns the number of garments added to the closet
+    public int getImported() {
+        return imported;
+    }
+
+    // Parses a chunk of lines in parallel and adds the garments found to their type's list
+    private void parseChunk(List<String> chunk, int firstLine, boolean json,
+                            Map<String, List<Garment>> byType) {
+        Garment[] items = new Garment[chunk.size()];
+        String[] lineErrors = new String[chunk.size()];
+        IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+            String line = chunk.get(i);
+            if (!line.isBlank()) {
+                try {
+                    items[i] = json ? parseJson(line) : parseCsv(line);
+                } catch (IllegalArgumentException e) {
+                    lineErrors[i] = e.getMessage();
+                }
+            }
+        });
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != null) {
+                byType.computeIfAbsent(items[i].getType(), type -> new ArrayList<>()).add(items[i]);
+            } else if (lineErrors[i] != null) {
+                invalid++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add("Line " + (firstLine + i) + ": " + lineErrors[i]);
+                }
+            }
+        }
+    }
+
+    // Parses a CSV line of the form type,name,price,notes
+    private Garment parseCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unclosed quote");
+        }
+        fields.add(field.toString());
+        if (fields.size() < 3 || fields.size() > 4) {
+            throw new IllegalArgumentException("expected type,name,price,notes");
+        }
+        return makeGarment(fields.get(0), fields.get(1), fields.get(2),
+                fields.size() == 4 ? fields.get(3) : "");
+    }
+
+    // Parses a JSON object holding the type, name, price and notes of a garment.
+    // Only flat objects with string and number values are accepted.
+    private Garment parseJson(String line) {
+        Map<String, String> values = new HashMap<>();
+        int[] pos = {skipSpaces(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) != '}') {
+            do {
+                String key = readJsonString(line, pos);
+                expect(line, pos, ':');
+                String value;
+                if (peek(line, pos) == '"') {
+                    value = readJsonString(line, pos);
+                } else {
+                    int start = pos[0];
+                    while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+                        pos[0]++;
+                    }
+                    value = line.substring(start, pos[0]);
+                    pos[0] = skipSpaces(line, pos[0]);
+                }
+                values.put(key, value);
+            } while (tryExpect(line, pos, ','));
+        }
+        expect(line, pos, '}');
+        String price = values.containsKey("price") ? values.get("price") : values.get("cost");
+        return makeGarment(values.get("type"), values.get("name"), price,
+                values.getOrDefault("notes", ""));
+    }
+
+    // Checks the fields of a garment and builds it
+    private Garment makeGarment(String type, String name, String price, String notes) {
+        if (type == null || !types.contains(CategoryRegistry.normalize(type))) {
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("missing name");
+        }
+        if (name.equalsIgnoreCase("EXIT")) {
+            throw new IllegalArgumentException("'exit' cannot be used as a name");
+        }
+        double cost;
+        try {
+            cost = Double.parseDouble(price.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IllegalArgumentException("invalid price " + price);
+        }
+        if (Double.isNaN(cost) || Double.isInfinite(cost)) {
+            throw new IllegalArgumentException("invalid price " + price);
+        }
+        return new Garment(name, CategoryRegistry.normalize(type), cost, notes);
+    }
+
+    // Reads a JSON string starting at the given position
+    private static String readJsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder text = new StringBuilder();
+        int i = pos[0];
+        while (i < line.length() && line.charAt(i) != '"') {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i++;
+                char escaped = line.charAt(i);
+                if (escaped == 'n') {
+                    text.append('\n');
+                } else if (escaped == 't') {
+                    text.append('\t');
+                } else if (escaped == 'r') {
+                    text.append('\r');
+                } else if (escaped == 'u' && i + 4 < line.length()) {
+                    try {
+                        text.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("invalid escape in string");
+                    }
+                    i += 4;
+                } else {
+                    text.append(escaped);
+                }
+            } else {
+                text.append(c);
+            }
+            i++;
+        }
+        if (i >= line.length()) {
+            throw new IllegalArgumentException("unclosed string");
+        }
+        pos[0] = skipSpaces(line, i + 1);
+        return text.toString();
+    }
+
+    private static char peek(String line, int[] pos) {
+        return pos[0] < line.length() ? line.charAt(pos[0]) : 0;
+    }
+
+    // Skips the given character and any spaces after it, or fails if it is not next
+    private static void expect(String line, int[] pos, char c) {
+        if (!tryExpect(line, pos, c)) {
+            throw new IllegalArgumentException("expected '" + c + "' at column " + (pos[0] + 1));
+        }
+    }
+
+    // Skips the given character and any spaces after it if it is next.
+    // Returns true if it was skipped.
+    private static boolean tryExpect(String line, int[] pos, char c) {
+        if (peek(line, pos) != c) {
+            return false;
+        }
+        pos[0] = skipSpaces(line, pos[0] + 1);
+        return true;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
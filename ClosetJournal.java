@@ -0,0 +1,620 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Class that saves a closet to disk.
+// The closet is stored as a snapshot of every garment (see ClosetSnapshot) plus an
+// append-only journal of the changes made since that snapshot. Changes are written into a buffer and
+// a background thread writes the buffer out and syncs it to disk once a second,
+// so logging a change never waits on the disk.
+// The journal also keeps the closet's history of changes that can be undone (see
+// ClosetHistory). Those records are not replayed on the garments, and are written again
+// at the start of the journal after each compaction, so the history outlives the snapshot.
+public class ClosetJournal {
+
+    // folder the closets are saved in
+    public static final Path DEFAULT_FOLDER = Paths.get("closets");
+
+    // marks the start of every closet file
+    private static final int MAGIC = 0x434C4F53;
+    private static final int HEADER_SIZE = 16;
+
+    // record types in the journal
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte WEAR = 3;
+    // an added garment that has already been worn, such as one whose removal was undone
+    private static final byte ADD_WORN = 4;
+    // the last wear of a garment was undone
+    private static final byte UNWEAR = 5;
+    // a name was removed from a category or added back to it at a given time, see ClosetSync
+    private static final byte MARK = 6;
+    // a change was made that can be undone, or the most recent one was undone or
+    // redone, or the changes were forgotten, see ClosetHistory
+    private static final byte CHANGE = 7;
+    private static final byte UNDO = 8;
+    private static final byte REDO = 9;
+    private static final byte FORGET = 10;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+    // the journal is compacted into a new snapshot once it holds this many records,
+    // or as many records as there are garments, whichever is larger
+    private static final long MIN_COMPACT_RECORDS = 1_000_000;
+
+    // one background thread syncs every open journal
+    private static final ScheduledExecutorService SYNCER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "closet-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final FileChannel journal;
+    private final ByteBuffer buffer;
+    private final ScheduledFuture<?> syncTask;
+    // snapshot generation that the journal records apply to
+    private long generation;
+    // number of records in the journal
+    private long records;
+    // true if records were written since the last sync
+    private boolean unsynced;
+    private boolean closed;
+
+    // Opens (or creates) the journal files of the given user inside the given folder
+    public ClosetJournal(Path folder, String userName) {
+        String fileName = fileName(userName);
+        snapshotFile = folder.resolve(fileName + ".snapshot");
+        journalFile = folder.resolve(fileName + ".journal");
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            Files.createDirectories(folder);
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        syncTask = SYNCER.scheduleWithFixedDelay(this::syncInBackground, SYNC_INTERVAL_MILLIS,
+                SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns the name the files of the given user are saved under. Lower-case letters
+    // and digits are kept, and every other character is written as _ followed by its
+    // code in 4 hex digits, so "Bob" is saved as "_0042ob". Every user name gets its own
+    // file name, made only of characters that are safe in any file system, including
+    // those that ignore case.
+    public static String fileName(String userName) {
+        StringBuilder name = new StringBuilder(userName.length());
+        for (int i = 0; i < userName.length(); i++) {
+            char c = userName.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                name.append(c);
+            } else {
+                name.append('_').append(String.format(Locale.ROOT, "%04x", (int) c));
+            }
+        }
+        return name.toString();
+    }
+
+    // Opens the journal of the given user inside the default folder
+    public static ClosetJournal forUser(String userName) {
+        return new ClosetJournal(DEFAULT_FOLDER, userName);
+    }
+
+    // Loads the last snapshot into the given closet and replays the journal after it.
+    // A record that was only partly written when the program stopped is dropped.
+    public synchronized void load(Closet closet) {
+        try {
+            generation = 0;
+            if (Files.exists(snapshotFile)) {
+                generation = ClosetSnapshot.read(snapshotFile, closet);
+            }
+
+            long validEnd = HEADER_SIZE;
+            records = 0;
+            Reader in = new Reader(journal.position(0));
+            if (journal.size() >= HEADER_SIZE && in.readHeader() == generation) {
+                try {
+                    while (in.hasMore()) {
+                        byte op = in.getByte();
+                        String type = in.getString();
+                        String name = in.getString();
+                        if (op == ADD) {
+                            double cost = in.getDouble();
+                            String notes = in.getString();
+                            closet.restoreAdd(new Garment(name, type.intern(), cost, notes));
+                        } else if (op == REMOVE) {
+                            closet.restoreRemove(type, name);
+                        } else if (op == WEAR) {
+                            closet.restoreWear(type, name, in.getLong());
+                        } else if (op == ADD_WORN) {
+                            closet.restoreAdd(readGarment(in, type, name));
+                        } else if (op == UNWEAR) {
+                            closet.restoreUnwear(type, name, in.getLong());
+                        } else if (op == MARK) {
+                            closet.restoreMark(type, name, in.getLong());
+                        } else if (op == CHANGE) {
+                            closet.restoreChange(readChange(in));
+                        } else if (op == UNDO) {
+                            closet.restoreUndo(readChange(in));
+                        } else if (op == REDO) {
+                            closet.restoreRedo();
+                        } else if (op == FORGET) {
+                            closet.restoreForget();
+                        } else {
+                            break;
+                        }
+                        records++;
+                        validEnd = in.position();
+                    }
+                } catch (TruncatedRecordException e) {
+                    // the last record was not completely written, ignore it
+                }
+            }
+            closet.finishRestore();
+
+            // drop anything past the last complete record and keep appending after it
+            if (validEnd == HEADER_SIZE) {
+                resetJournal();
+            } else {
+                journal.truncate(validEnd);
+                journal.position(validEnd);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that the given garment was added, along with its wears if it has any
+    public synchronized void logAdd(Garment item) {
+        WearHistory history = item.getWearHistory();
+        int historySize = history == null ? 0 : history.getByteSize();
+        boolean worn = item.getTimesWorn() > 0;
+        ByteBuffer record = startRecord(1 + stringSize(item.getType()) + stringSize(item.getName())
+                + 8 + stringSize(item.getNotes()) + (worn ? 20 + historySize : 0));
+        record.put(worn ? ADD_WORN : ADD);
+        putString(record, item.getType());
+        putString(record, item.getName());
+        record.putDouble(item.getCost());
+        putString(record, item.getNotes());
+        if (worn) {
+            putWears(record, item);
+        }
+        finishRecord(record);
+    }
+
+    // Records that the garment of the given type with the given name was removed
+    public synchronized void logRemove(String type, String name) {
+        ByteBuffer record = startRecord(1 + stringSize(type) + stringSize(name));
+        record.put(REMOVE);
+        putString(record, type);
+        putString(record, name);
+        finishRecord(record);
+    }
+
+    // Records that the garment of the given type with the given name was worn on the given day
+    public synchronized void logWear(String type, String name, long day) {
+        ByteBuffer record = startRecord(1 + stringSize(type) + stringSize(name) + 8);
+        record.put(WEAR);
+        putString(record, type);
+        putString(record, name);
+        record.putLong(day);
+        finishRecord(record);
+    }
+
+    // Records that the last wear of the garment of the given type with the given name
+    // was undone, leaving it last worn on the given day
+    public synchronized void logUnwear(String type, String name, long previousLastWorn) {
+        ByteBuffer record = startRecord(1 + stringSize(type) + stringSize(name) + 8);
+        record.put(UNWEAR);
+        putString(record, type);
+        putString(record, name);
+        record.putLong(previousLastWorn);
+        finishRecord(record);
+    }
+
+    // Records that the given lower case name was removed from the category of the given
+    // type, or added back to it, at the given time (milliseconds since 01/01/1970)
+    public synchronized void logMark(String type, String lowerCaseName, long time) {
+        ByteBuffer record = startRecord(1 + stringSize(type) + stringSize(lowerCaseName) + 8);
+        record.put(MARK);
+        putString(record, type);
+        putString(record, lowerCaseName);
+        record.putLong(time);
+        finishRecord(record);
+    }
+
+    // Records a change that can be undone. The garments it adds are found by name once
+    // the journal is read back, while those it removes are saved whole to be added back.
+    public synchronized void logChange(ClosetHistory.Change change) {
+        logChange(CHANGE, change, false);
+    }
+
+    // Records that the given change, the most recent one, was undone, with its garments
+    // saved whole so it can be redone
+    public synchronized void logUndo(ClosetHistory.Change change) {
+        logChange(UNDO, change, true);
+    }
+
+    // Records that the change undone most recently was redone
+    public synchronized void logRedo() {
+        logHistoryOp(REDO);
+    }
+
+    // Records that every change was forgotten
+    public synchronized void logForget() {
+        logHistoryOp(FORGET);
+    }
+
+    // Records a change, with every garment saved whole if wholeItems is true, or else
+    // only the garments it removed
+    private void logChange(byte op, ClosetHistory.Change change, boolean wholeItems) {
+        Garment[] items = change.getItems();
+        int size = 1 + 2 * stringSize("") + 1 + 24 + 4;
+        for (int i = 0; i < items.length; i++) {
+            boolean whole = wholeItems || change.removes(i);
+            size += stringSize(items[i].getType()) + 1 + (whole ? garmentSize(items[i]) : stringSize(items[i].getName()));
+        }
+        ByteBuffer record = startRecord(size);
+        record.put(op);
+        putString(record, "");
+        putString(record, "");
+        record.put((byte) change.getKind().ordinal());
+        record.putLong(change.getTime());
+        record.putLong(change.getDay());
+        record.putLong(change.getPreviousLastWorn());
+        record.putInt(items.length);
+        for (int i = 0; i < items.length; i++) {
+            boolean whole = wholeItems || change.removes(i);
+            putString(record, items[i].getType());
+            record.put((byte) (whole ? 1 : 0));
+            if (whole) {
+                putGarment(record, items[i]);
+            } else {
+                putString(record, items[i].getName());
+            }
+        }
+        finishRecord(record);
+    }
+
+    private void logHistoryOp(byte op) {
+        ByteBuffer record = startRecord(1 + 2 * stringSize(""));
+        record.put(op);
+        putString(record, "");
+        putString(record, "");
+        finishRecord(record);
+    }
+
+    // Returns true if the journal has grown large enough to be compacted
+    // for a closet holding the given number of garments
+    public synchronized boolean needsCompaction(long garmentCount) {
+        return records >= Math.max(MIN_COMPACT_RECORDS, garmentCount);
+    }
+
+    // Writes every garment of the closet to a new snapshot and empties the journal,
+    // apart from the closet's history of changes, which is written to it again.
+    // The snapshot and journal share a generation number, so if the program stops
+    // between the two steps the old journal is not replayed on top of the new snapshot.
+    public synchronized void compact(Closet closet) {
+        try {
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            ClosetSnapshot.write(temp, generation + 1, closet);
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            generation++;
+            buffer.clear();
+            resetJournal();
+            closet.logHistory(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Syncs the journal for the background thread. A failure is reported rather than
+    // thrown, since a scheduled task that throws is never run again.
+    private void syncInBackground() {
+        try {
+            sync();
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not save the journal " + journalFile + ": " + e.getCause().getMessage());
+        }
+    }
+
+    // Writes out any buffered records and syncs the journal to disk
+    public void sync() {
+        try {
+            synchronized (this) {
+                if (closed || !unsynced) {
+                    return;
+                }
+                writeOut(journal, buffer);
+                unsynced = false;
+            }
+            journal.force(false);
+        } catch (ClosedChannelException e) {
+            // the journal was closed after its buffer was written out, which syncs it anyway
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Compacts the journal into a final snapshot and closes the files
+    public void close(Closet closet) {
+        syncTask.cancel(false);
+        synchronized (this) {
+            compact(closet);
+            sync();
+            closed = true;
+            try {
+                journal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Empties the journal, leaving only the header for the current generation
+    private void resetJournal() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        putHeader(header, generation);
+        journal.truncate(0);
+        journal.position(0);
+        writeOut(journal, header);
+        journal.force(false);
+        records = 0;
+    }
+
+    // Returns a buffer with room for a record of at most the given number of bytes.
+    // This is the journal's own buffer, written out first if it is too full, unless the
+    // record is larger than the whole buffer, such as a garment with very long notes or
+    // a long wear history. Such a record gets a buffer of its own.
+    private ByteBuffer startRecord(int size) {
+        if (buffer.remaining() < size) {
+            try {
+                writeOut(journal, buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (size > buffer.capacity()) {
+                return ByteBuffer.allocate(size);
+            }
+        }
+        return buffer;
+    }
+
+    // Counts a record started with startRecord, writing it straight to the journal file
+    // if it did not fit in the journal's buffer. The buffer was written out before such a
+    // record was started, so records stay in order.
+    private void finishRecord(ByteBuffer record) {
+        if (record != buffer) {
+            try {
+                writeOut(journal, record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        records++;
+        unsynced = true;
+    }
+
+    // Writes everything in the buffer to the channel and clears the buffer
+    private static void writeOut(FileChannel out, ByteBuffer data) throws IOException {
+        data.flip();
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+        data.clear();
+    }
+
+    private static void putHeader(ByteBuffer data, long generation) {
+        data.putInt(MAGIC);
+        data.putInt(1);
+        data.putLong(generation);
+    }
+
+    // Garments saved whole are stored as their name, cost, notes and wears
+    private static void putGarment(ByteBuffer data, Garment item) {
+        putString(data, item.getName());
+        data.putDouble(item.getCost());
+        putString(data, item.getNotes());
+        putWears(data, item);
+    }
+
+    // Returns the most bytes the given garment can take up when saved whole
+    private static int garmentSize(Garment item) {
+        WearHistory history = item.getWearHistory();
+        return stringSize(item.getName()) + 8 + stringSize(item.getNotes()) + 20
+                + (history == null ? 0 : history.getByteSize());
+    }
+
+    private static void putWears(ByteBuffer data, Garment item) {
+        WearHistory history = item.getWearHistory();
+        int historySize = history == null ? 0 : history.getByteSize();
+        data.putInt(item.getTimesWorn());
+        data.putLong(item.getLastWorn());
+        data.putInt(history == null ? 0 : history.getCount());
+        data.putInt(historySize);
+        if (history != null) {
+            data.put(history.getData(), 0, historySize);
+        }
+    }
+
+    // Reads the cost, notes and wears of a garment with the given type and name
+    private static Garment readGarment(Reader in, String type, String name) throws IOException {
+        double cost = in.getDouble();
+        String notes = in.getString();
+        Garment item = new Garment(name, type.intern(), cost, notes, in.getInt(), in.getLong());
+        int wears = in.getInt();
+        byte[] history = in.getBytes(in.getInt());
+        if (wears > 0) {
+            item.restoreWearHistory(new WearHistory(history, wears));
+        }
+        return item;
+    }
+
+    // Reads a change saved by logChange. Garments saved by name only are read as
+    // garments with just that name, to be found in the closet, see ClosetHistory.resolve.
+    private static ClosetHistory.Change readChange(Reader in) throws IOException {
+        int kind = in.getByte();
+        if (kind < 0 || kind >= ClosetHistory.Kind.values().length) {
+            throw new IOException("Corrupt change");
+        }
+        long time = in.getLong();
+        long day = in.getLong();
+        long previousLastWorn = in.getLong();
+        int count = in.getInt();
+        if (count < 0) {
+            throw new IOException("Corrupt change");
+        }
+        List<Garment> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String type = in.getString();
+            boolean whole = in.getByte() != 0;
+            String name = in.getString();
+            items.add(whole ? readGarment(in, type, name) : new Garment(name, type.intern(), 0, ""));
+        }
+        return ClosetHistory.Change.restore(ClosetHistory.Kind.values()[kind], items.toArray(new Garment[0]),
+                day, previousLastWorn, time);
+    }
+
+    // Strings are stored as their byte length followed by their UTF-8 bytes
+    private static void putString(ByteBuffer data, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        data.putInt(bytes.length);
+        data.put(bytes);
+    }
+
+    // Returns the most bytes the given string can take up when stored
+    private static int stringSize(String text) {
+        return 4 + text.length() * 3;
+    }
+
+    // Thrown when a file ends in the middle of a record
+    private static class TruncatedRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TruncatedRecordException() {
+            super("File ends in the middle of a record");
+        }
+    }
+
+    // Reads records from a channel through a large buffer
+    private static class Reader {
+        private final FileChannel channel;
+        private ByteBuffer data;
+        // position in the file of the start of the buffer
+        private long bufferStart;
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.bufferStart = channel.position();
+            this.data = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            data.flip();
+        }
+
+        // Reads the file header and returns its generation number
+        long readHeader() throws IOException {
+            if (getInt() != MAGIC || getInt() != 1) {
+                throw new IOException("Not a closet file");
+            }
+            return getLong();
+        }
+
+        // Returns the position in the file of the next unread byte
+        long position() {
+            return bufferStart + data.position();
+        }
+
+        boolean hasMore() throws IOException {
+            return data.hasRemaining() || fill(1);
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return data.get();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return data.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            return data.getLong();
+        }
+
+        double getDouble() throws IOException {
+            require(8);
+            return data.getDouble();
+        }
+
+        byte[] getBytes(int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("Corrupt length");
+            }
+            require(length);
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            return bytes;
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0) {
+                throw new IOException("Corrupt string length");
+            }
+            require(length);
+            String text = new String(data.array(), data.arrayOffset() + data.position(),
+                    length, StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+            return text;
+        }
+
+        // Makes sure the given number of bytes are in the buffer
+        private void require(int size) throws IOException {
+            if (data.remaining() < size && !fill(size)) {
+                throw new TruncatedRecordException();
+            }
+        }
+
+        // Reads more of the file into the buffer until it holds at least the given
+        // number of bytes. Returns false if the file ends first.
+        private boolean fill(int size) throws IOException {
+            bufferStart += data.position();
+            data.compact();
+            if (data.capacity() < size) {
+                ByteBuffer bigger = ByteBuffer.allocate(size);
+                data.flip();
+                bigger.put(data);
+                data = bigger;
+            }
+            while (data.position() < size) {
+                if (channel.read(data) < 0) {
+                    data.flip();
+                    return false;
+                }
+            }
+            data.flip();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures the latency and throughput of ClosetServer on this machine.
+//
+// Usage: java ClosetLoadTest [users] [clients] [seconds]
+//   users    number of different closets used, default 1000
+//   clients  number of requests sent at the same time, default 64
+//   seconds  how long to send requests for, default 20
+//
+// A server is started on a free port with its closets in a temporary folder, and each
+// client sends requests one after another for a random user: half log a wear, and the
+// rest add an item, search names or display a category. The first quarter of the time
+// is a warmup that is not measured. Throughput and latency percentiles are printed at the end.
+public class ClosetLoadTest {
+
+    private static final String[] TYPES = {"tops", "bottoms", "full body", "outerwear", "shoes", "accessories"};
+    private static final String[] WORDS = {"black", "white", "linen", "shirt", "denim", "jacket", "wool",
+            "red", "boots", "silk", "scarf", "vintage", "cotton", "navy", "striped", "leather"};
+    // items each user starts with
+    private static final int ITEMS_PER_USER = 20;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Path folder = Files.createTempDirectory("closet-load");
+        ClosetServer server = new ClosetServer(0, folder);
+        server.start();
+        String base = "http://localhost:" + server.getPort() + "/";
+        ExecutorService responses = Executors.newFixedThreadPool(Math.max(4, clients / 4));
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .executor(responses).build();
+        ExecutorService senders = Executors.newFixedThreadPool(clients);
+        try {
+            System.out.println("Adding " + ITEMS_PER_USER + " items for each of " + users + " users...");
+            List<Future<?>> setup = new ArrayList<>();
+            for (int user = 0; user < users; user++) {
+                int u = user;
+                setup.add(senders.submit(() -> {
+                    for (int item = 0; item < ITEMS_PER_USER; item++) {
+                        send(http, addRequest(base, u, item, new Random(item)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : setup) {
+                future.get();
+            }
+
+            System.out.println("Sending requests from " + clients + " clients for " + seconds + " seconds...");
+            long start = System.nanoTime();
+            long measureFrom = start + seconds * 250_000_000L;
+            long end = start + seconds * 1_000_000_000L;
+            AtomicLong errors = new AtomicLong();
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                long seed = client;
+                results.add(senders.submit(() -> runClient(http, base, users, seed, measureFrom, end, errors)));
+            }
+            long[] latencies = new long[0];
+            for (Future<long[]> future : results) {
+                long[] clientLatencies = future.get();
+                int old = latencies.length;
+                latencies = Arrays.copyOf(latencies, old + clientLatencies.length);
+                System.arraycopy(clientLatencies, 0, latencies, old, clientLatencies.length);
+            }
+            printReport(latencies, (end - measureFrom) / 1e9, errors.get());
+        } finally {
+            senders.shutdownNow();
+            responses.shutdownNow();
+            server.stop();
+        }
+    }
+
+    // Sends requests until the end time and returns the latency of each one
+    // sent after the warmup, in nanoseconds
+    private static long[] runClient(HttpClient http, String base, int users, long seed,
+                                    long measureFrom, long end, AtomicLong errors) {
+        Random random = new Random(seed);
+        long[] latencies = new long[1024];
+        int count = 0;
+        int added = 0;
+        long now = System.nanoTime();
+        while (now < end) {
+            int user = random.nextInt(users);
+            int pick = random.nextInt(10);
+            HttpRequest request;
+            if (pick < 5) {
+                int item = random.nextInt(ITEMS_PER_USER);
+                String date = (1 + random.nextInt(12)) + "/" + (1 + random.nextInt(28)) + "/" + (2015 + random.nextInt(10));
+                request = post(base + user + "/wear?type=" + encode(TYPES[item % TYPES.length])
+                        + "&name=" + encode(itemName(item)) + "&date=" + encode(date));
+            } else if (pick < 7) {
+                request = addRequest(base, user, ITEMS_PER_USER + (int) (seed << 20) + added, random);
+                added++;
+            } else if (pick < 9) {
+                request = get(base + user + "/search?text=" + WORDS[random.nextInt(WORDS.length)]);
+            } else {
+                request = get(base + user + "/display?type=" + encode(TYPES[random.nextInt(TYPES.length)]));
+            }
+            long sent = System.nanoTime();
+            if (!send(http, request)) {
+                errors.incrementAndGet();
+            }
+            now = System.nanoTime();
+            if (sent >= measureFrom) {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count] = now - sent;
+                count++;
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    // Prints the throughput and latency percentiles of the measured requests
+    private static void printReport(long[] latencies, double seconds, long errors) {
+        Arrays.sort(latencies);
+        System.out.printf(Locale.ROOT, "Requests:   %d (%d failed)%n", latencies.length, errors);
+        System.out.printf(Locale.ROOT, "Throughput: %.0f requests/sec%n", latencies.length / seconds);
+        if (latencies.length > 0) {
+            System.out.printf(Locale.ROOT, "Latency:    p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                    percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+        }
+    }
+
+    // Returns the given percentile of the sorted latencies, in milliseconds
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    // Sends the request and returns true if the server answered it successfully.
+    // Adding an item that already exists counts as a success.
+    private static boolean send(HttpClient http, HttpRequest request) {
+        try {
+            int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            return status == 200 || status == 409;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Returns a request adding the given item to the closet of the given user
+    private static HttpRequest addRequest(String base, int user, int item, Random random) {
+        String notes = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+        return post(base + user + "/add?type=" + encode(TYPES[item % TYPES.length])
+                + "&name=" + encode(itemName(item)) + "&price=" + random.nextInt(20000) / 100.0
+                + "&notes=" + encode(notes));
+    }
+
+    private static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).GET().build();
+    }
+
+    private static HttpRequest post(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    // Returns the name of the given item of a user. Item i is of type TYPES[i % TYPES.length].
+    private static String itemName(int item) {
+        return "item " + item;
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+}
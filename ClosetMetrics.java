@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Class that measures how long closet operations take.
+// Turned off unless the program is started with -Dcloset.metrics=true. ENABLED is
+// a constant, so when it is false the JIT compiler removes the checks for it and
+// the measuring costs nothing.
+// When turned on, each operation records:
+// - how many times it ran and a histogram of how long it took
+// - the bytes it allocated, from the JVM's count for the current thread
+// - a closet.Operation event for JDK Flight Recorder, when a recording is running
+// The number of garment comparisons is counted too. The totals can be printed from
+// the display menu, and are written as JSON to the file named by
+// -Dcloset.metrics.export every -Dcloset.metrics.interval seconds (default 60).
+public class ClosetMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("closet.metrics");
+
+    private static final long DEFAULT_EXPORT_SECONDS = 60;
+
+    // The measured operations
+    public enum Operation {
+        ADD("add"),
+        REMOVE("remove"),
+        WEAR("logWear"),
+        SEARCH("search"),
+        DISPLAY("display"),
+        FIND("findGarment");
+
+        private final String label;
+        private final Histogram histogram = new Histogram();
+        private final LongAdder allocated = new LongAdder();
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final LongAdder COMPARISONS = new LongAdder();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            ENABLED ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    static {
+        String export = System.getProperty("closet.metrics.export");
+        if (ENABLED && export != null) {
+            long seconds = Long.getLong("closet.metrics.interval", DEFAULT_EXPORT_SECONDS);
+            ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "closet-metrics-export");
+                thread.setDaemon(true);
+                return thread;
+            });
+            exporter.scheduleAtFixedRate(() -> export(Paths.get(export)), seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // A running measurement of one operation
+    public static class Timer {
+        private final Operation operation;
+        private final OperationEvent event;
+        private final long startNanos;
+        private final long startAllocated;
+
+        private Timer(Operation operation) {
+            this.operation = operation;
+            this.event = new OperationEvent();
+            event.begin();
+            this.startNanos = System.nanoTime();
+            this.startAllocated = THREADS.getCurrentThreadAllocatedBytes();
+        }
+
+        // Ends the measurement and records it
+        public void stop() {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes() - startAllocated;
+            long nanos = System.nanoTime() - startNanos;
+            operation.histogram.record(nanos);
+            operation.allocated.add(allocated);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.label;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    // Flight Recorder event for one closet operation
+    @Name("closet.Operation")
+    @Label("Closet Operation")
+    @Category("Closet")
+    @Description("An add, remove, wear, search, display or lookup in a closet")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    // Starts measuring the given operation.
+    // Returns null if metrics are turned off, in which case there is nothing to stop.
+    public static Timer start(Operation operation) {
+        if (!ENABLED) {
+            return null;
+        }
+        return new Timer(operation);
+    }
+
+    // Counts one comparison between two garments
+    public static void countComparison() {
+        COMPARISONS.increment();
+    }
+
+    // Returns the totals so far as a table
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-12s | %-10s | %-10s | %-10s | %-10s | %-10s | %-10s%n",
+                "Operation", "Count", "Mean us", "p50 us", "p99 us", "Max us", "Bytes/op"));
+        text.append("-".repeat(90)).append(System.lineSeparator());
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = operation.histogram;
+            long count = histogram.count();
+            text.append(String.format(Locale.ROOT, "%-12s | %-10d | %-10.2f | %-10.2f | %-10.2f | %-10.2f | %-10.0f%n",
+                    operation.label, count, histogram.mean() / 1e3, histogram.percentile(0.50) / 1e3,
+                    histogram.percentile(0.99) / 1e3, histogram.max() / 1e3,
+                    count == 0 ? 0.0 : operation.allocated.sum() / (double) count));
+        }
+        text.append("Garment comparisons: ").append(COMPARISONS.sum()).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    // Returns the totals so far as a JSON object
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"operations\":{");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = operation.histogram;
+            long count = histogram.count();
+            if (operation.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(operation.label).append("\":{")
+                    .append("\"count\":").append(count)
+                    .append(",\"meanNanos\":").append(Math.round(histogram.mean()))
+                    .append(",\"p50Nanos\":").append(histogram.percentile(0.50))
+                    .append(",\"p90Nanos\":").append(histogram.percentile(0.90))
+                    .append(",\"p99Nanos\":").append(histogram.percentile(0.99))
+                    .append(",\"maxNanos\":").append(histogram.max())
+                    .append(",\"allocatedBytes\":").append(operation.allocated.sum())
+                    .append('}');
+        }
+        return json.append("},\"comparisons\":").append(COMPARISONS.sum()).append('}').toString();
+    }
+
+    // Writes the totals as JSON to the given file, replacing it in one step
+    private static void export(Path file) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not export metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Counts of durations in nanoseconds, in buckets that are each an eighth of a power
+    // of two wide, so any percentile is within 12.5% of the real value.
+    // Durations under 8ns get a bucket each.
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            counts.incrementAndGet(bucket(nanos));
+            total.add(nanos);
+            long seen = max.get();
+            while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+                seen = max.get();
+            }
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        double mean() {
+            long count = count();
+            return count == 0 ? 0 : total.sum() / (double) count;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Returns the highest duration in the bucket holding the given fraction of durations
+        long percentile(double fraction) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestIn(i), max());
+                }
+            }
+            return max();
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long highestIn(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+        }
+    }
+}
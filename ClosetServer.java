@@ -0,0 +1,400 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Serves many users' closets from one program over HTTP, answering in JSON.
+//
+// Usage: java ClosetServer [port]    (default port 8080)
+//
+// Requests, with their parameters in the query string:
+//   POST /{user}/add      type, name, price, notes
+//   POST /{user}/remove   type, name
+//   POST /{user}/wear     type, name, date (MO/DA/YEAR)
+//   GET  /{user}/search   text, in (name or notes, default name), type (default every type),
+//                         word (true to match the start of a word)
+//   GET  /{user}/display  type (default every type); answers with the items of the type
+//                         and their total value
+//   POST /{user}/undo     undoes the user's last add, remove, wear or merge
+//   POST /{user}/redo     makes the change undone last again
+//
+// Each user has their own Closet, loaded from the closets folder the first time it is
+// used. Users are told apart by their exact names, so "Bob" and "bob" have their own
+// closets and files, see ClosetJournal.fileName. Requests for one closet take turns,
+// but requests for different users never wait on each other. A display reads a version
+// of the closet a few hundred items at a time, so the user's other requests can change
+// the closet in between without changing what is shown. Closets that have not been
+// used for a while are saved and unloaded.
+// Requests run on virtual threads when the Java version supports them.
+public class ClosetServer {
+
+    private static final long IDLE_MILLIS = 5 * 60 * 1000;
+    private static final long EVICTION_CHECK_MILLIS = 30 * 1000;
+    // garments a display request reads while holding the closet's lock
+    private static final int DISPLAY_CHUNK = 500;
+
+    static {
+        // without this, small answers wait for the client's delayed acknowledgement (about 40ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final Path folder;
+    private final Map<String, OpenCloset> closets;
+    private final ExecutorService requests;
+    private final ScheduledExecutorService evictor;
+
+    // A closet that is currently loaded.
+    // Its lock is held while a request uses it, and it is loaded on first use.
+    private static class OpenCloset {
+        private final String userName;
+        private Closet closet;
+        private long lastUsed;
+        private boolean closed;
+
+        OpenCloset(String userName) {
+            this.userName = userName;
+        }
+    }
+
+    // A version of a closet being read by a request, and the loaded closet it is of,
+    // whose lock is held while the version is read
+    private static class OpenVersion {
+        private final OpenCloset open;
+        private final Closet.Version version;
+
+        OpenVersion(OpenCloset open, Closet.Version version) {
+            this.open = open;
+            this.version = version;
+        }
+    }
+
+    // Thrown when a request cannot be answered, with the HTTP status to send back
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // Constructs a server on the given port that keeps closets in the given folder
+    public ClosetServer(int port, Path folder) throws IOException {
+        this.folder = folder;
+        this.closets = new ConcurrentHashMap<>();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.requests = requestExecutor();
+        server.setExecutor(requests);
+        server.createContext("/", this::handle);
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "closet-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        ClosetServer server = new ClosetServer(port, ClosetJournal.DEFAULT_FOLDER);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        System.out.println("Closet server listening on port " + server.getPort());
+    }
+
+    // Starts answering requests
+    public void start() {
+        server.start();
+        evictor.scheduleWithFixedDelay(() -> evictIdle(IDLE_MILLIS), EVICTION_CHECK_MILLIS,
+                EVICTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops answering requests and saves every loaded closet
+    public void stop() {
+        server.stop(1);
+        evictor.shutdown();
+        requests.shutdown();
+        evictIdle(-1);
+    }
+
+    // Returns the port the server is listening on
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Saves and unloads every closet that has not been used for the given time
+    void evictIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, OpenCloset> entry : closets.entrySet()) {
+            OpenCloset open = entry.getValue();
+            synchronized (open) {
+                if (!open.closed && now - open.lastUsed > idleMillis) {
+                    open.closed = true;
+                    if (open.closet != null) {
+                        open.closet.close();
+                    }
+                    closets.remove(entry.getKey(), open);
+                }
+            }
+        }
+    }
+
+    // Runs the action on the closet of the given user, loading the closet if needed
+    private <T> T withCloset(String userName, Function<Closet, T> action) {
+        return withOpenCloset(userName, open -> action.apply(open.closet));
+    }
+
+    // Runs the action on the loaded closet of the given user while holding its lock,
+    // loading the closet if needed
+    private <T> T withOpenCloset(String userName, Function<OpenCloset, T> action) {
+        while (true) {
+            OpenCloset open = closets.computeIfAbsent(userName, OpenCloset::new);
+            synchronized (open) {
+                if (!open.closed) {
+                    if (open.closet == null) {
+                        open.closet = new Closet(open.userName, new ClosetJournal(folder, open.userName), null);
+                    }
+                    open.lastUsed = System.currentTimeMillis();
+                    return action.apply(open);
+                }
+            }
+            // the closet was unloaded while this request waited, load it again
+        }
+    }
+
+    // Answers one request
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            // the path is split before it is decoded, so a user name can hold any character,
+            // and decoded once, with + kept as it is, so each name has one spelling
+            String[] path = exchange.getRequestURI().getRawPath().split("/");
+            if (path.length != 3 || path[1].isEmpty()) {
+                throw new RequestException(404, "Expected /{user}/{action}");
+            }
+            String userName = URLDecoder.decode(path[1].replace("+", "%2B"), StandardCharsets.UTF_8);
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            body = answer(userName, path[2], method, params);
+        } catch (RequestException e) {
+            status = e.status;
+            body = "{\"error\":" + quote(e.getMessage()) + "}";
+        } catch (RuntimeException e) {
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e)) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Runs the requested action and returns the JSON answer
+    private String answer(String userName, String action, String method, Map<String, String> params) {
+        boolean post = method.equals("POST");
+        if (action.equals("add") && post) {
+            String type = required(params, "type").toLowerCase();
+            String name = required(params, "name");
+            double cost;
+            try {
+                cost = Double.parseDouble(required(params, "price"));
+            } catch (NumberFormatException e) {
+                throw new RequestException(400, "Invalid price");
+            }
+            String notes = params.getOrDefault("notes", "");
+            return withCloset(userName, closet -> {
+                checkType(closet, type);
+                if (closet.findGarment(type, name) != null) {
+                    throw new RequestException(409, "An item with this name already exists");
+                }
+                closet.addGarment(new Garment(name, type, cost, notes));
+                return "{\"added\":" + quote(name) + "}";
+            });
+        } else if (action.equals("remove") && post) {
+            String type = required(params, "type").toLowerCase();
+            String name = required(params, "name");
+            return withCloset(userName, closet -> {
+                closet.removeGarment(type, find(closet, type, name));
+                return "{\"removed\":" + quote(name) + "}";
+            });
+        } else if (action.equals("wear") && post) {
+            String type = required(params, "type").toLowerCase();
+            String name = required(params, "name");
+            String date = required(params, "date");
+            return withCloset(userName, closet -> {
+                Garment item = find(closet, type, name);
+                try {
+                    closet.wearGarment(type, item, date);
+                } catch (IllegalArgumentException e) {
+                    throw new RequestException(400, "Invalid date, use MO/DA/YEAR");
+                }
+                return garmentJson(new StringBuilder(), item).toString();
+            });
+        } else if ((action.equals("undo") || action.equals("redo")) && post) {
+            boolean undo = action.equals("undo");
+            return withCloset(userName, closet -> {
+                ClosetHistory.Change change = undo ? closet.undoChange() : closet.redoChange();
+                if (change == null) {
+                    throw new RequestException(409, "There is nothing to " + action);
+                }
+                return "{\"" + (undo ? "undone" : "redone") + "\":" + quote(change.describe()) + "}";
+            });
+        } else if (action.equals("search") && !post) {
+            String text = required(params, "text");
+            boolean inNotes = params.getOrDefault("in", "name").equals("notes");
+            boolean wordStart = Boolean.parseBoolean(params.get("word"));
+            String type = params.containsKey("type") ? params.get("type").toLowerCase() : null;
+            return withCloset(userName, closet -> {
+                if (type != null) {
+                    checkType(closet, type);
+                }
+                return garmentsJson(closet.searchGarments(text, inNotes, wordStart, type));
+            });
+        } else if (action.equals("display") && !post) {
+            String type = params.containsKey("type") ? params.get("type").toLowerCase() : null;
+            return display(userName, type);
+        }
+        throw new RequestException(404, "Unknown action " + method + " " + action);
+    }
+
+    // Returns every garment of the given type and its sub-categories, or of every type if
+    // it is null, as they were when the request started, along with their total value.
+    // They are read from a version of the closet, holding the closet's lock only while
+    // each DISPLAY_CHUNK garments are read. If the closet is unloaded in between, the
+    // rest is read from the unloaded closet, which no longer changes.
+    private String display(String userName, String type) {
+        OpenVersion opened = withOpenCloset(userName, open -> {
+            if (type != null) {
+                checkType(open.closet, type);
+            }
+            return new OpenVersion(open, open.closet.openVersion(type));
+        });
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        try {
+            boolean more = true;
+            while (more) {
+                synchronized (opened.open) {
+                    more = opened.version.read(DISPLAY_CHUNK, item -> {
+                        if (json.charAt(json.length() - 1) != '[') {
+                            json.append(',');
+                        }
+                        garmentJson(json, item);
+                    });
+                }
+            }
+        } finally {
+            synchronized (opened.open) {
+                opened.version.close();
+            }
+        }
+        return json.append("],\"totalValue\":").append(opened.version.getTotalValue()).append('}').toString();
+    }
+
+    private static void checkType(Closet closet, String type) {
+        if (!closet.hasCategory(type)) {
+            throw new RequestException(400, "Unknown type " + type);
+        }
+    }
+
+    // Returns the garment of the given type with the given name, or fails with 404
+    private static Garment find(Closet closet, String type, String name) {
+        checkType(closet, type);
+        Garment item = closet.findGarment(type, name);
+        if (item == null) {
+            throw new RequestException(404, "Name not found");
+        }
+        return item;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new RequestException(400, "Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static String garmentsJson(List<Garment> items) {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            garmentJson(json, items.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static StringBuilder garmentJson(StringBuilder json, Garment item) {
+        return json.append("{\"name\":").append(quote(item.getName()))
+                .append(",\"type\":").append(quote(item.getType()))
+                .append(",\"price\":").append(item.getCost())
+                .append(",\"pricePerWear\":").append(item.getPricePerWear())
+                .append(",\"timesWorn\":").append(item.getTimesWorn())
+                .append(",\"lastWorn\":").append(quote(item.getLastWornText()))
+                .append(",\"notes\":").append(quote(item.getNotes()))
+                .append('}');
+    }
+
+    // Returns the text as a JSON string
+    private static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    // Returns an executor that runs each request on its own virtual thread if this
+    // Java version has them, or on a pool of ordinary threads if not
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
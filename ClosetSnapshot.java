@@ -0,0 +1,668 @@
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+// Class that reads and writes the snapshot file of a closet.
+// The file has a fixed binary layout that is read through a memory-mapped buffer:
+//
+// header      magic, version, generation, garment count, string count, column offset,
+//             string table offset, name table offset
+// strings     every distinct string once, as its byte length followed by its UTF-8 bytes
+// string table the position of each string in the file
+// categories  the number of categories, then for each in the order they are shown (each
+//             category before its sub-categories) its path (as a string number), its
+//             first garment and its number of garments
+// columns     one array per field, each holding a value for every garment in order:
+//             type, name and notes (as string numbers), cost, times worn, last worn day,
+//             number of wears in the wear history, byte length and position of the wear history
+// histories   the bytes of every garment's wear history (see WearHistory), in order
+// name table  a hash table from a category and lower case name to the garment, as the
+//             garment's number plus one in each slot, or 0 for an empty slot
+// marks       the number of marks of names removed from a category or added back to it
+//             (see ClosetSync), then for each its category number, its lower case name
+//             as a byte length followed by UTF-8 bytes, and its time
+//
+// The garments of each category are written in order, so the closet does not read them
+// when it is opened. It keeps each category's garments in the file as a StoredGarments
+// and only builds a Garment when one is used: found by name, shown, searched or changed.
+// Finding a garment by name looks it up in the name table, and the views of garments last
+// worn between two days are found by binary search, so neither reads the whole category.
+public class ClosetSnapshot {
+
+    private static final int MAGIC = 0x434C4F53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    // bytes of the columns of one garment
+    private static final int ROW_SIZE = 44;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Writes every garment in the closet to the given file
+    public static void write(Path file, long generation, Closet closet) throws IOException {
+        List<String> categories = closet.getCategories();
+        int[] firstRows = new int[categories.size()];
+        int[] rowCounts = new int[categories.size()];
+        int count = 0;
+        for (int c = 0; c < rowCounts.length; c++) {
+            firstRows[c] = count;
+            rowCounts[c] = closet.getCategory(categories.get(c)).size();
+            count += rowCounts[c];
+        }
+        Garment[] items = new Garment[count];
+        int[] categoryOf = new int[count];
+        int[] types = new int[count];
+        int[] names = new int[count];
+        int[] notes = new int[count];
+        int[] categoryNumbers = new int[categories.size()];
+        Map<String, Integer> stringNumbers = new HashMap<>();
+        List<Integer> stringOffsets = new ArrayList<>();
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            out.position(HEADER_SIZE);
+
+            // strings, numbered in the order they are first seen
+            int i = 0;
+            for (int c = 0; c < categoryNumbers.length; c++) {
+                int type = writeString(out, data, stringNumbers, stringOffsets, categories.get(c));
+                categoryNumbers[c] = type;
+                for (Garment item : closet.getCategory(categories.get(c))) {
+                    items[i] = item;
+                    categoryOf[i] = c;
+                    types[i] = type;
+                    names[i] = writeString(out, data, stringNumbers, stringOffsets, item.getName());
+                    notes[i] = writeString(out, data, stringNumbers, stringOffsets, item.getNotes());
+                    i++;
+                }
+            }
+            long stringTableOffset = out.position() + data.position();
+            for (int offset : stringOffsets) {
+                ensureSpace(out, data, 4);
+                data.putInt(offset);
+            }
+            ensureSpace(out, data, 4);
+            data.putInt(categoryNumbers.length);
+            for (int c = 0; c < categoryNumbers.length; c++) {
+                ensureSpace(out, data, 12);
+                data.putInt(categoryNumbers[c]);
+                data.putInt(firstRows[c]);
+                data.putInt(rowCounts[c]);
+            }
+            writeOut(out, data);
+            long columnOffset = out.position();
+
+            // columns
+            writeInts(out, data, types);
+            writeInts(out, data, names);
+            writeInts(out, data, notes);
+            for (Garment item : items) {
+                ensureSpace(out, data, 8);
+                data.putDouble(item.getCost());
+            }
+            for (Garment item : items) {
+                ensureSpace(out, data, 4);
+                data.putInt(item.getTimesWorn());
+            }
+            for (Garment item : items) {
+                ensureSpace(out, data, 8);
+                data.putLong(item.getLastWorn());
+            }
+            for (Garment item : items) {
+                WearHistory history = item.getWearHistory();
+                ensureSpace(out, data, 4);
+                data.putInt(history == null ? 0 : history.getCount());
+            }
+            for (Garment item : items) {
+                WearHistory history = item.getWearHistory();
+                ensureSpace(out, data, 4);
+                data.putInt(history == null ? 0 : history.getByteSize());
+            }
+            long historyOffset = columnOffset + (long) count * ROW_SIZE;
+            for (Garment item : items) {
+                WearHistory history = item.getWearHistory();
+                ensureSpace(out, data, 4);
+                data.putInt((int) historyOffset);
+                historyOffset += history == null ? 0 : history.getByteSize();
+            }
+            for (Garment item : items) {
+                WearHistory history = item.getWearHistory();
+                if (history != null) {
+                    writeBytes(out, data, history.getData(), history.getByteSize());
+                }
+            }
+
+            // name table
+            long nameTableOffset = out.position() + data.position();
+            int[] slots = new int[tableSize(count)];
+            for (int row = 0; row < count; row++) {
+                int slot = slotOf(categoryOf[row], items[row].getName().toLowerCase(), slots.length);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = row + 1;
+            }
+            ensureSpace(out, data, 4);
+            data.putInt(slots.length);
+            writeInts(out, data, slots);
+
+            // marks
+            int markCount = 0;
+            for (String path : categories) {
+                markCount += closet.removalsOf(path).size();
+            }
+            ensureSpace(out, data, 4);
+            data.putInt(markCount);
+            for (int c = 0; c < categoryNumbers.length; c++) {
+                for (Map.Entry<String, Long> mark : closet.removalsOf(categories.get(c)).entrySet()) {
+                    byte[] name = mark.getKey().getBytes(StandardCharsets.UTF_8);
+                    ensureSpace(out, data, 8);
+                    data.putInt(c);
+                    data.putInt(name.length);
+                    writeBytes(out, data, name, name.length);
+                    ensureSpace(out, data, 8);
+                    data.putLong(mark.getValue());
+                }
+            }
+            writeOut(out, data);
+            if (out.position() > Integer.MAX_VALUE) {
+                throw new IOException("Closet is too large to save in one snapshot: " + file);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(generation);
+            header.putInt(count);
+            header.putInt(stringNumbers.size());
+            header.putLong(columnOffset);
+            header.putLong(stringTableOffset);
+            header.putLong(nameTableOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(true);
+        }
+    }
+
+    // Reads the given file into the closet and returns the generation number of the
+    // snapshot. The garments are left in the file, see StoredGarments.
+    public static long read(Path file, Closet closet) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map: " + file);
+            }
+            if (size < HEADER_SIZE) {
+                throw new IOException("Snapshot is incomplete: " + file);
+            }
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("Not a closet snapshot: " + file);
+            }
+            readMapped(file, data, closet);
+            return data.getLong(8);
+        }
+    }
+
+    // Reads the categories and marks of a snapshot and gives the closet the garments of
+    // each category as they are in the file
+    private static void readMapped(Path file, MappedByteBuffer data, Closet closet) throws IOException {
+        Mapped mapped = new Mapped(data);
+        if (mapped.columnOffset + (long) mapped.count * ROW_SIZE > data.capacity()
+                || mapped.nameTable + 4L * mapped.nameTableSize > data.capacity()) {
+            throw new IOException("Snapshot is incomplete: " + file);
+        }
+        int categoryCount = data.getInt(mapped.categoryTable);
+        List<String> paths = new ArrayList<>();
+        for (int c = 0; c < categoryCount; c++) {
+            paths.add(mapped.string(data.getInt(mapped.categoryTable + 4 + c * 12)));
+        }
+        closet.restoreCategories(paths);
+        for (int c = 0; c < categoryCount; c++) {
+            int position = mapped.categoryTable + 4 + c * 12;
+            int first = data.getInt(position + 4);
+            int rows = data.getInt(position + 8);
+            if (rows > 0) {
+                closet.restoreStored(paths.get(c), new StoredGarments(new Rows(mapped, c, first, first + rows)));
+            }
+        }
+        int position = mapped.nameTable + 4 * mapped.nameTableSize;
+        if (position + 4L > data.capacity()) {
+            throw new IOException("Snapshot is incomplete: " + file);
+        }
+        int markCount = data.getInt(position);
+        position += 4;
+        for (int i = 0; i < markCount; i++) {
+            if (position + 8L > data.capacity()
+                    || position + 16L + data.getInt(position + 4) > data.capacity()) {
+                throw new IOException("Snapshot is incomplete: " + file);
+            }
+            int category = data.getInt(position);
+            byte[] name = new byte[data.getInt(position + 4)];
+            data.get(position + 8, name);
+            position += 8 + name.length;
+            closet.restoreMark(paths.get(category), new String(name, StandardCharsets.UTF_8),
+                    data.getLong(position));
+            position += 8;
+        }
+    }
+
+    // Returns the number of slots of the name table of a snapshot with the given number
+    // of garments, at least twice as many so lookups find an empty slot quickly
+    private static int tableSize(int count) {
+        return Integer.highestOneBit(Math.max(count, 1)) * 4;
+    }
+
+    // Returns the slot of the name table where looking for the garment of the given
+    // category number with the given lower case name starts
+    private static int slotOf(int category, String lowerCaseName, int tableSize) {
+        int hash = lowerCaseName.hashCode() * 31 + category;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (tableSize - 1);
+    }
+
+    // An open snapshot, read through its mapping.
+    // Only absolute reads are used, so the buffer's position never changes.
+    private static class Mapped {
+        private final MappedByteBuffer data;
+        private final int count;
+        private final int stringTable;
+        private final int categoryTable;
+        private final int columnOffset;
+        private final int nameTable;
+        private final int nameTableSize;
+
+        Mapped(MappedByteBuffer data) {
+            this.data = data;
+            count = data.getInt(16);
+            stringTable = (int) data.getLong(32);
+            categoryTable = stringTable + data.getInt(20) * 4;
+            columnOffset = (int) data.getLong(24);
+            nameTable = (int) data.getLong(40) + 4;
+            nameTableSize = data.getInt(nameTable - 4);
+        }
+
+        // Returns the string with the given number
+        String string(int number) {
+            int position = data.getInt(stringTable + number * 4);
+            byte[] bytes = new byte[data.getInt(position)];
+            data.get(position + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Returns the string number of the name of the garment with the given number
+        int nameOf(int row) {
+            return data.getInt(columnOffset + count * 4 + row * 4);
+        }
+
+        // Returns the string number of the notes of the garment with the given number
+        int notesOf(int row) {
+            return data.getInt(columnOffset + count * 8 + row * 4);
+        }
+
+        double cost(int row) {
+            return data.getDouble(columnOffset + count * 12 + row * 8);
+        }
+
+        int timesWorn(int row) {
+            return data.getInt(columnOffset + count * 20 + row * 4);
+        }
+
+        // Builds the garment with the given number, in the category with the given id of
+        // the given registry
+        Garment build(int row, CategoryRegistry categories, int categoryId) {
+            int lastWorn = columnOffset + count * 24;
+            int historyCounts = columnOffset + count * 32;
+            int historyLengths = columnOffset + count * 36;
+            int historyOffsets = columnOffset + count * 40;
+            Garment item = new Garment(string(nameOf(row)), categories, categoryId, cost(row),
+                    string(notesOf(row)), timesWorn(row), data.getLong(lastWorn + row * 8));
+            int length = data.getInt(historyLengths + row * 4);
+            if (length > 0) {
+                byte[] history = new byte[length];
+                data.get(data.getInt(historyOffsets + row * 4), history);
+                item.restoreWearHistory(new WearHistory(history, data.getInt(historyCounts + row * 4)));
+            }
+            return item;
+        }
+
+        // Returns the number of the garment of the given category number with the given
+        // lower case name, or -1 if there is none
+        int find(int category, String lowerCaseName, int first, int end) {
+            int slot = slotOf(category, lowerCaseName, nameTableSize);
+            while (true) {
+                int row = data.getInt(nameTable + slot * 4) - 1;
+                if (row < 0) {
+                    return -1;
+                }
+                if (row >= first && row < end && string(nameOf(row)).toLowerCase().equals(lowerCaseName)) {
+                    return row;
+                }
+                slot = (slot + 1) & (nameTableSize - 1);
+            }
+        }
+    }
+
+    // The garments of one category in the file and which of them are still there
+    private static class Rows {
+        private final Mapped file;
+        private final int category;
+        private final int first;
+        private final int end;
+        // garments taken out of the file, by number from first
+        private final BitSet gone = new BitSet();
+        private int goneCount;
+        // the garment built for each number from first, if it is still in use, so
+        // a garment is only ever built once while anything refers to it
+        private WeakReference<?>[] built;
+        // the closet's registry and the id of the category the garments are built in
+        private CategoryRegistry categories;
+        private int categoryId;
+
+        Rows(Mapped file, int category, int first, int end) {
+            this.file = file;
+            this.category = category;
+            this.first = first;
+            this.end = end;
+        }
+
+        boolean isGone(int row) {
+            return gone.get(row - first);
+        }
+
+        // Returns the garment with the given number if it has been built and is still in
+        // use, or else null
+        Garment built(int row) {
+            WeakReference<?> reference = built == null ? null : built[row - first];
+            return reference == null ? null : (Garment) reference.get();
+        }
+
+        // Returns the garment with the given number, building it if it is not in use
+        Garment garment(int row) {
+            if (built == null) {
+                built = new WeakReference<?>[end - first];
+            }
+            WeakReference<?> reference = built[row - first];
+            Garment item = reference == null ? null : (Garment) reference.get();
+            if (item == null) {
+                item = file.build(row, categories, categoryId);
+                built[row - first] = new WeakReference<>(item);
+            }
+            return item;
+        }
+
+        // Returns the first garment number from the given one that is still in the file
+        int nextRow(int row) {
+            return first + gone.nextClearBit(row - first);
+        }
+    }
+
+    // A read-only sorted set of the garments of a category that are still in the snapshot
+    // file, or of the part of them between two garments, in their natural order.
+    // Garments are built from the file as they are used. The closet takes a garment out
+    // before it changes or removes it, and keeps it in memory from then on.
+    static class StoredGarments extends AbstractSet<Garment> implements SortedSet<Garment> {
+        private final Rows rows;
+        // the garment numbers this set covers, from and up to but not including to
+        private final int from;
+        private final int to;
+
+        private StoredGarments(Rows rows) {
+            this(rows, rows.first, rows.end);
+        }
+
+        private StoredGarments(Rows rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        // Sets the closet's registry and the id of the category the garments are built in.
+        // Must be called before any garment is used.
+        void setCategory(CategoryRegistry categories, int categoryId) {
+            rows.categories = categories;
+            rows.categoryId = categoryId;
+        }
+
+        // Returns the garment with the given lower case name, or null if there is none
+        Garment find(String lowerCaseName) {
+            int row = rows.file.find(rows.category, lowerCaseName, from, to);
+            return row < 0 || rows.isGone(row) ? null : rows.garment(row);
+        }
+
+        // The following methods read single garments of the category by their number in
+        // the file, from firstRow() up to but not including endRow(), whether they are
+        // in this part of the set or not. They are used to keep garments by number, so
+        // they do not have to be built or kept in memory, see SearchIndex and
+        // ClosetAnalytics.
+
+        int firstRow() {
+            return rows.first;
+        }
+
+        int endRow() {
+            return rows.end;
+        }
+
+        // Returns true if the garment with the given number is still in the file, and
+        // not taken out by the closet
+        boolean holds(int row) {
+            return !rows.isGone(row);
+        }
+
+        // Returns the garment with the given number, building it if it is not in use.
+        // A garment taken out of the file is the same one the closet holds.
+        Garment garment(int row) {
+            return rows.garment(row);
+        }
+
+        // Returns the name of the garment with the given number, without building it
+        String name(int row) {
+            return rows.file.string(rows.file.nameOf(row));
+        }
+
+        // Returns the notes of the garment with the given number, without building it
+        String notes(int row) {
+            return rows.file.string(rows.file.notesOf(row));
+        }
+
+        // Returns the cost of the garment with the given number, without building it
+        double cost(int row) {
+            return rows.file.cost(row);
+        }
+
+        // Returns the times the garment with the given number was worn, without building it
+        int timesWorn(int row) {
+            return rows.file.timesWorn(row);
+        }
+
+        // Returns the number of the given garment if it was built from the file, taken out
+        // or not, or -1 if it was not
+        int rowOf(Garment item) {
+            int row = rows.file.find(rows.category, item.getName().toLowerCase(), rows.first, rows.end);
+            return row >= 0 && rows.built(row) == item ? row : -1;
+        }
+
+        // Takes the given garment out of the file, if it was built from this set and is
+        // still in it. Returns true if it was.
+        boolean take(Garment item) {
+            int row = rows.file.find(rows.category, item.getName().toLowerCase(), from, to);
+            if (row < 0 || rows.isGone(row) || rows.garment(row) != item) {
+                return false;
+            }
+            rows.gone.set(row - rows.first);
+            rows.goneCount++;
+            return true;
+        }
+
+        @Override
+        public Iterator<Garment> iterator() {
+            return new Iterator<>() {
+                private int row = rows.nextRow(from);
+
+                @Override
+                public boolean hasNext() {
+                    return row < to;
+                }
+
+                @Override
+                public Garment next() {
+                    if (row >= to) {
+                        throw new NoSuchElementException();
+                    }
+                    Garment item = rows.garment(row);
+                    row = rows.nextRow(row + 1);
+                    return item;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            if (from == rows.first && to == rows.end) {
+                return to - from - rows.goneCount;
+            }
+            int size = to - from;
+            for (int i = rows.gone.nextSetBit(from - rows.first); i >= 0 && i < to - rows.first;
+                 i = rows.gone.nextSetBit(i + 1)) {
+                size--;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Garment)) {
+                return false;
+            }
+            Garment item = (Garment) o;
+            int row = lowerBound(item);
+            return row < to && !rows.isGone(row) && rows.garment(row).compareTo(item) == 0;
+        }
+
+        @Override
+        public Comparator<? super Garment> comparator() {
+            return null;
+        }
+
+        @Override
+        public Garment first() {
+            Iterator<Garment> items = iterator();
+            if (!items.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return items.next();
+        }
+
+        @Override
+        public Garment last() {
+            for (int row = to - 1; row >= from; row--) {
+                if (!rows.isGone(row)) {
+                    return rows.garment(row);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public SortedSet<Garment> subSet(Garment fromElement, Garment toElement) {
+            return new StoredGarments(rows, lowerBound(fromElement), lowerBound(toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> headSet(Garment toElement) {
+            return new StoredGarments(rows, from, lowerBound(toElement));
+        }
+
+        @Override
+        public SortedSet<Garment> tailSet(Garment fromElement) {
+            return new StoredGarments(rows, lowerBound(fromElement), to);
+        }
+
+        // Returns the number of the first garment of this set, taken out or not, that
+        // does not sort before the given one. Garments taken out of the file still have
+        // their place in it, so the numbers stay in order.
+        private int lowerBound(Garment item) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (rows.file.build(middle, rows.categories, rows.categoryId).compareTo(item) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Writes the string if it has not been written yet and returns its number
+    private static int writeString(FileChannel out, ByteBuffer data, Map<String, Integer> stringNumbers,
+                                   List<Integer> stringOffsets, String text) throws IOException {
+        Integer number = stringNumbers.get(text);
+        if (number == null) {
+            number = stringNumbers.size();
+            stringNumbers.put(text, number);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ensureSpace(out, data, 4);
+            stringOffsets.add((int) (out.position() + data.position()));
+            data.putInt(bytes.length);
+            writeBytes(out, data, bytes, bytes.length);
+        }
+        return number;
+    }
+
+    // Writes the first length bytes of the array
+    private static void writeBytes(FileChannel out, ByteBuffer data, byte[] bytes, int length)
+            throws IOException {
+        int written = 0;
+        while (written < length) {
+            ensureSpace(out, data, 1);
+            int chunk = Math.min(data.remaining(), length - written);
+            data.put(bytes, written, chunk);
+            written += chunk;
+        }
+    }
+
+    private static void writeInts(FileChannel out, ByteBuffer data, int[] values) throws IOException {
+        for (int value : values) {
+            ensureSpace(out, data, 4);
+            data.putInt(value);
+        }
+    }
+
+    // Writes the buffer out to the channel if it does not have room for the given number of bytes
+    private static void ensureSpace(FileChannel out, ByteBuffer data, int size) throws IOException {
+        if (data.remaining() < size) {
+            writeOut(out, data);
+        }
+    }
+
+    // Writes everything in the buffer to the channel and clears the buffer
+    private static void writeOut(FileChannel out, ByteBuffer data) throws IOException {
+        data.flip();
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+        data.clear();
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+// Logs millions of random wears on a closet and checks that it stays consistent.
+//
+// Usage: java ClosetStressTest [items] [wears] [seed]
+//   items  number of garments in the closet, default 10000
+//   wears  number of wears to log, default 5000000
+//   seed   seed of the random choices, default a random one
+//
+// Wears are logged on random days, most of them recent and some far in the past, so
+// garments move both forwards and backwards within their category. Now and then a
+// wear is undone, or a garment is removed and added back. After every batch of wears
+// the closet is checked:
+// - every category is in order and its garments can still be found in it
+// - every garment can be found by its name, in any case
+// - the unworn views hold exactly the garments never worn
+// - the total value matches the garments, and no wear was lost or counted twice
+// The first failure is printed with the seed, so it can be run again.
+public class ClosetStressTest {
+
+    private static final String[] WORDS = {"black", "white", "linen", "shirt", "denim", "jacket", "wool",
+            "red", "boots", "silk", "scarf", "vintage", "cotton", "navy", "striped", "leather"};
+    // wears logged between two checks of the whole closet
+    private static final int CHECK_EVERY = 250_000;
+    private static final long FIRST_DAY = 18_000;
+    private static final int DAYS = 2_000;
+
+    public static void main(String[] args) {
+        int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long wears = args.length > 1 ? Long.parseLong(args[1]) : 5_000_000L;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+        System.out.println("Seed " + seed + ", " + itemCount + " items, " + wears + " wears");
+
+        Random random = new Random(seed);
+        Closet closet = new Closet("stress", null, null);
+        List<String> types = closet.getCategories();
+        Garment[] items = new Garment[itemCount];
+        int[] expectedWears = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            // few distinct prices, so many garments tie on every key but the name
+            items[i] = new Garment(name, types.get(random.nextInt(types.size())), random.nextInt(20) * 5, "");
+            closet.addGarment(items[i]);
+        }
+        check(closet, items, expectedWears, seed, 0);
+
+        long start = System.nanoTime();
+        for (long n = 1; n <= wears; n++) {
+            int i = random.nextInt(itemCount);
+            Garment item = items[i];
+            int action = random.nextInt(100);
+            if (action == 0) {
+                closet.removeGarment(item.getType(), item);
+                closet.addGarment(item);
+            } else if (action < 3 && item.getTimesWorn() > 0) {
+                closet.wearGarment(item.getType(), item, randomDay(random));
+                closet.undoChange();
+            } else {
+                closet.wearGarment(item.getType(), item, randomDay(random));
+                expectedWears[i]++;
+            }
+            if (n % CHECK_EVERY == 0 || n == wears) {
+                check(closet, items, expectedWears, seed, n);
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Passed: " + wears + " wears in " + millis + "ms ("
+                + (millis == 0 ? wears : wears * 1000 / millis) + " wears/s)");
+    }
+
+    // Returns a day in the last few years, most often a recent one
+    private static long randomDay(Random random) {
+        if (random.nextInt(4) == 0) {
+            return FIRST_DAY + random.nextInt(DAYS);
+        }
+        return FIRST_DAY + DAYS - 1 - random.nextInt(30);
+    }
+
+    // Checks every invariant of the closet, exiting with a message on the first failure
+    private static void check(Closet closet, Garment[] items, int[] expectedWears, long seed, long wears) {
+        int total = 0;
+        int unworn = 0;
+        for (String type : closet.getCategories()) {
+            SortedSet<Garment> category = closet.getCategory(type);
+            Garment previous = null;
+            for (Garment item : category) {
+                if (previous != null && previous.compareTo(item) >= 0) {
+                    fail(seed, wears, type + " is out of order at " + previous.getName() + ", " + item.getName());
+                }
+                previous = item;
+            }
+            total += category.size();
+            int unwornInType = 0;
+            Iterator<Garment> unwornItems = closet.unwornGarments(type).iterator();
+            while (unwornItems.hasNext()) {
+                if (unwornItems.next().getTimesWorn() != 0) {
+                    fail(seed, wears, "a worn item of " + type + " is listed as unworn");
+                }
+                unwornInType++;
+            }
+            unworn += unwornInType;
+        }
+        if (total != items.length) {
+            fail(seed, wears, "the closet holds " + total + " items instead of " + items.length);
+        }
+
+        long valueCents = 0;
+        int expectedUnworn = 0;
+        List<String> lost = new ArrayList<>();
+        for (int i = 0; i < items.length; i++) {
+            Garment item = items[i];
+            valueCents += Math.round(item.getCost() * 100);
+            if (item.getTimesWorn() == 0) {
+                expectedUnworn++;
+            }
+            if (!closet.getCategory(item.getType()).contains(item)) {
+                fail(seed, wears, item.getName() + " cannot be found in its category");
+            }
+            if (closet.findGarment(item.getType(), item.getName().toUpperCase()) != item) {
+                fail(seed, wears, item.getName() + " cannot be found by its name");
+            }
+            if (item.getTimesWorn() != expectedWears[i]) {
+                lost.add(item.getName());
+            }
+        }
+        if (!lost.isEmpty()) {
+            fail(seed, wears, lost.size() + " items have the wrong wear count, such as " + lost.get(0));
+        }
+        if (unworn != expectedUnworn) {
+            fail(seed, wears, unworn + " items are listed as unworn instead of " + expectedUnworn);
+        }
+        if (Math.round(closet.getTotalValue() * 100) != valueCents) {
+            fail(seed, wears, "the total value is " + closet.getTotalValue() + " instead of " + valueCents / 100.0);
+        }
+        System.out.println("Checked after " + wears + " wears");
+    }
+
+    private static void fail(long seed, long wears, String message) {
+        System.out.println("FAILED after " + wears + " wears (seed " + seed + "): " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,738 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Brings two copies of the same closet, such as one on a laptop and one on a server,
+// up to date with each other, sending only the garments that differ.
+//
+// Usage: java ClosetSync folder otherFolder user
+//   syncs the closet of the user saved in one folder with the one saved in the other
+//
+// Each category of each copy is summed up in a hash tree. Every garment goes in the
+// leaf picked by a hash of its lower case name, and each node holds the sum of the
+// hashes of the garments below it, so two nodes with the same hash almost surely hold
+// the same garments. The copies start by comparing the root of each category and then
+// go down one level at a time, only into the children that differ, until they reach
+// the leaves that differ. Only the garments in those leaves are sent. Copies that
+// differ by a few hundred garments out of a million exchange kilobytes, in a round
+// trip per level of the trees.
+//
+// A garment in only one copy is added to the other. A garment in both is merged:
+// - its wears are every day worn in either copy. A day worn more than once counts the
+//   most times it was worn in one copy, so wears logged in only one copy are added up
+//   and syncing again never counts a wear twice.
+// - it was last worn on the later of the two last worn days
+// - its name, cost and notes are those of the copy worn most recently
+// Categories in only one copy are added to the other.
+//
+// Removals are synced too. Each copy marks the names removed from a category with the
+// time they were removed, and keeps the mark when a garment with the name is added
+// back, with the time it came back (see Closet.removalsOf). The marks of removed names
+// are hashed into the trees along with the garments, so a removal makes the copies
+// differ like any other change. A garment in one copy whose name was removed from the
+// other is removed from both, unless it was added back after the removal. Marks are
+// never dropped, so a copy that has not been synced for a long time still learns of
+// old removals. Each copy saves the changes it is sent to its journal.
+public class ClosetSync {
+
+    // requests one copy sends the other
+    private static final byte SUMMARY = 1;
+    private static final byte CHILDREN = 2;
+    private static final byte ITEMS = 3;
+    private static final byte APPLY = 4;
+
+    // bits of a garment's name hash used to pick its child at each level
+    private static final int FAN_OUT_BITS = 4;
+    private static final int FAN_OUT = 1 << FAN_OUT_BITS;
+    // levels below the root in the largest tree, giving about a million leaves
+    private static final int MAX_DEPTH = 5;
+
+    // Sends a request to the other copy and returns its answer
+    public interface Transport {
+        byte[] send(byte[] request) throws IOException;
+    }
+
+    // A transport to a closet in the same program. Counts the bytes sent each way.
+    public static class LocalTransport implements Transport {
+        private final Peer peer;
+        private long bytesSent;
+        private long bytesReceived;
+
+        // Constructs a transport to the given closet
+        public LocalTransport(Closet closet) {
+            peer = new Peer(closet);
+        }
+
+        @Override
+        public byte[] send(byte[] request) throws IOException {
+            bytesSent += request.length;
+            byte[] answer = peer.answer(request);
+            bytesReceived += answer.length;
+            return answer;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+    }
+
+    // The number of garments each copy added, changed or removed during a sync
+    public static class Result {
+        private final int itemsReceived;
+        private final int itemsSent;
+
+        Result(int itemsReceived, int itemsSent) {
+            this.itemsReceived = itemsReceived;
+            this.itemsSent = itemsSent;
+        }
+
+        // Returns the number of garments added, changed or removed in the local copy
+        public int getItemsReceived() {
+            return itemsReceived;
+        }
+
+        // Returns the number of garments added, changed or removed in the other copy
+        public int getItemsSent() {
+            return itemsSent;
+        }
+    }
+
+    // Answers the requests of the other copy about one closet.
+    // Trees are kept between requests, so one Peer should be used for a single sync.
+    public static class Peer {
+        private final Closet closet;
+        private final Map<String, HashTree> trees = new HashMap<>();
+
+        // Constructs a peer answering for the given closet
+        public Peer(Closet closet) {
+            this.closet = closet;
+        }
+
+        // Returns the answer to the given request
+        public byte[] answer(byte[] request) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            byte op = in.readByte();
+            if (op == SUMMARY) {
+                List<String> categories = closet.getCategories();
+                out.writeInt(categories.size());
+                for (String path : categories) {
+                    HashTree tree = tree(path, 0);
+                    writeString(out, path);
+                    out.writeInt(tree.count);
+                    out.writeLong(tree.levels[0][0]);
+                }
+            } else if (op == CHILDREN) {
+                int categoryCount = in.readInt();
+                for (int c = 0; c < categoryCount; c++) {
+                    String path = readString(in);
+                    HashTree tree = tree(path, in.readByte());
+                    int level = in.readByte();
+                    int nodeCount = in.readInt();
+                    for (int i = 0; i < nodeCount; i++) {
+                        int node = in.readInt();
+                        for (int child = 0; child < FAN_OUT; child++) {
+                            out.writeLong(tree.levels[level + 1][node * FAN_OUT + child]);
+                        }
+                    }
+                }
+            } else if (op == ITEMS) {
+                int categoryCount = in.readInt();
+                for (int c = 0; c < categoryCount; c++) {
+                    String path = readString(in);
+                    int depth = in.readByte();
+                    BitSet leaves = readLeaves(in);
+                    List<Garment> found = List.of();
+                    Map<String, Long> marks = Map.of();
+                    if (closet.hasCategory(path)) {
+                        found = itemsIn(closet.getCategory(path), depth, leaves);
+                        marks = marksIn(closet.removalsOf(path), depth, leaves);
+                    }
+                    writeChanges(out, found, marks);
+                }
+            } else if (op == APPLY) {
+                List<String> categories = new ArrayList<>();
+                int categoryCount = in.readInt();
+                for (int c = 0; c < categoryCount; c++) {
+                    categories.add(readString(in));
+                }
+                List<Garment> items = new ArrayList<>();
+                Map<String, Map<String, Long>> marks = new LinkedHashMap<>();
+                int groupCount = in.readInt();
+                for (int g = 0; g < groupCount; g++) {
+                    String path = readString(in);
+                    Changes changes = readChanges(in, path);
+                    items.addAll(changes.items.values());
+                    marks.put(path, changes.marks);
+                }
+                int removed = closet.applySync(categories, items, marks);
+                trees.clear();
+                out.writeInt(items.size() + removed);
+            } else {
+                throw new IOException("Unknown sync request " + op);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        // Returns the tree of the given category with the given depth, an empty tree
+        // if the closet does not have the category
+        private HashTree tree(String path, int depth) {
+            return trees.computeIfAbsent(path + '\n' + depth, key -> closet.hasCategory(path)
+                    ? new HashTree(closet.getCategory(path), removedFrom(closet, path), depth)
+                    : new HashTree(List.of(), Map.of(), depth));
+        }
+    }
+
+    // The hash tree of one category, over its garments and the marks of the names
+    // removed from it. levels[0] holds the root and levels[depth] the leaves, with the
+    // children of node i of a level at i * FAN_OUT up to i * FAN_OUT + FAN_OUT - 1 of
+    // the level below.
+    private static class HashTree {
+        private final long[][] levels;
+        // number of garments and removed names in the tree
+        private int count;
+
+        HashTree(Iterable<Garment> items, Map<String, Long> removed, int depth) {
+            levels = new long[depth + 1][];
+            for (int level = 0; level <= depth; level++) {
+                levels[level] = new long[1 << (level * FAN_OUT_BITS)];
+            }
+            long[] leaves = levels[depth];
+            for (Garment item : items) {
+                leaves[leafOf(item.getName().toLowerCase(), depth)] += contentHash(item);
+                count++;
+            }
+            for (Map.Entry<String, Long> mark : removed.entrySet()) {
+                leaves[leafOf(mark.getKey(), depth)] += removalHash(mark.getKey(), mark.getValue());
+                count++;
+            }
+            for (int level = depth - 1; level >= 0; level--) {
+                long[] below = levels[level + 1];
+                long[] nodes = levels[level];
+                for (int i = 0; i < below.length; i++) {
+                    nodes[i >>> FAN_OUT_BITS] += below[i];
+                }
+            }
+        }
+    }
+
+    // The garments of one category a copy sends the other, by lower case name, and the
+    // marks of the names removed from it or added back to it. A marked name without a
+    // garment was removed.
+    private static class Changes {
+        private final Map<String, Garment> items = new LinkedHashMap<>();
+        private final Map<String, Long> marks = new LinkedHashMap<>();
+
+        boolean isEmpty() {
+            return items.isEmpty() && marks.isEmpty();
+        }
+    }
+
+    // A category of the local copy while the two copies are compared
+    private static class Comparison {
+        private final String path;
+        private final int depth;
+        private final HashTree tree;
+        // nodes of the current level whose hash differs between the copies
+        private int[] nodes = {0};
+
+        Comparison(String path, int depth, HashTree tree) {
+            this.path = path;
+            this.depth = depth;
+            this.tree = tree;
+        }
+    }
+
+    // Syncs the closet with the copy at the other end of the transport, so that both
+    // hold the same categories and garments afterwards
+    public static Result sync(Closet closet, Transport remote) throws IOException {
+        // roots of the other copy
+        Map<String, Integer> remoteCounts = new LinkedHashMap<>();
+        Map<String, Long> remoteRoots = new HashMap<>();
+        DataInputStream in = send(remote, request(SUMMARY));
+        int remoteCategories = in.readInt();
+        for (int c = 0; c < remoteCategories; c++) {
+            String path = readString(in);
+            remoteCounts.put(path, in.readInt());
+            remoteRoots.put(path, in.readLong());
+        }
+
+        List<String> localCategories = closet.getCategories();
+        Set<String> categories = new LinkedHashSet<>(localCategories);
+        categories.addAll(remoteCounts.keySet());
+        List<Comparison> comparisons = new ArrayList<>();
+        for (String path : categories) {
+            List<Garment> items = List.of();
+            Map<String, Long> removed = Map.of();
+            if (closet.hasCategory(path)) {
+                items = new ArrayList<>(closet.getCategory(path));
+                removed = removedFrom(closet, path);
+            }
+            int count = items.size() + removed.size();
+            int remoteCount = remoteCounts.getOrDefault(path, 0);
+            // when one copy has nothing in the category, all of the other's garments are needed
+            int depth = count == 0 || remoteCount == 0 ? 0 : depthFor(Math.max(count, remoteCount));
+            HashTree tree = new HashTree(items, removed, depth);
+            if (tree.levels[0][0] != remoteRoots.getOrDefault(path, 0L)) {
+                comparisons.add(new Comparison(path, depth, tree));
+            }
+        }
+
+        // go down the trees one level at a time, only into the nodes that differ
+        for (int level = 0; level < MAX_DEPTH; level++) {
+            List<Comparison> asked = new ArrayList<>();
+            for (Comparison comparison : comparisons) {
+                if (comparison.depth > level && comparison.nodes.length > 0) {
+                    asked.add(comparison);
+                }
+            }
+            if (asked.isEmpty()) {
+                break;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream request = new DataOutputStream(bytes);
+            request.writeByte(CHILDREN);
+            request.writeInt(asked.size());
+            for (Comparison comparison : asked) {
+                writeString(request, comparison.path);
+                request.writeByte(comparison.depth);
+                request.writeByte(level);
+                request.writeInt(comparison.nodes.length);
+                for (int node : comparison.nodes) {
+                    request.writeInt(node);
+                }
+            }
+            request.flush();
+            in = send(remote, bytes.toByteArray());
+            for (Comparison comparison : asked) {
+                long[] children = comparison.tree.levels[level + 1];
+                int[] differing = new int[comparison.nodes.length * FAN_OUT];
+                int count = 0;
+                for (int node : comparison.nodes) {
+                    for (int child = 0; child < FAN_OUT; child++) {
+                        int index = node * FAN_OUT + child;
+                        if (in.readLong() != children[index]) {
+                            differing[count++] = index;
+                        }
+                    }
+                }
+                comparison.nodes = Arrays.copyOf(differing, count);
+            }
+        }
+
+        // fetch the other copy's garments in the leaves that differ
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream request = new DataOutputStream(bytes);
+        request.writeByte(ITEMS);
+        request.writeInt(comparisons.size());
+        for (Comparison comparison : comparisons) {
+            writeString(request, comparison.path);
+            request.writeByte(comparison.depth);
+            request.writeInt(comparison.nodes.length);
+            for (int leaf : comparison.nodes) {
+                request.writeInt(leaf);
+            }
+        }
+        request.flush();
+        in = send(remote, bytes.toByteArray());
+
+        // merge the garments of those leaves
+        Map<String, Changes> localChanges = new LinkedHashMap<>();
+        Map<String, Changes> remoteChanges = new LinkedHashMap<>();
+        for (Comparison comparison : comparisons) {
+            Changes theirs = readChanges(in, comparison.path);
+            Map<String, Garment> mine = new HashMap<>();
+            Map<String, Long> myMarks = Map.of();
+            if (closet.hasCategory(comparison.path)) {
+                BitSet leaves = new BitSet();
+                for (int leaf : comparison.nodes) {
+                    leaves.set(leaf);
+                }
+                for (Garment item : itemsIn(closet.getCategory(comparison.path), comparison.depth, leaves)) {
+                    mine.put(item.getName().toLowerCase(), item);
+                }
+                myMarks = marksIn(closet.removalsOf(comparison.path), comparison.depth, leaves);
+            }
+            Set<String> names = new LinkedHashSet<>(mine.keySet());
+            names.addAll(myMarks.keySet());
+            names.addAll(theirs.items.keySet());
+            names.addAll(theirs.marks.keySet());
+            Changes received = new Changes();
+            Changes sent = new Changes();
+            for (String name : names) {
+                Garment my = mine.get(name);
+                Garment other = theirs.items.get(name);
+                long myTime = myMarks.getOrDefault(name, 0L);
+                long otherTime = theirs.marks.getOrDefault(name, 0L);
+                if (my != null && other != null) {
+                    Garment merged = merge(my, other);
+                    if (contentHash(merged) != contentHash(my)) {
+                        received.items.put(name, merged);
+                        if (otherTime > myTime) {
+                            received.marks.put(name, otherTime);
+                        }
+                    }
+                    if (contentHash(merged) != contentHash(other)) {
+                        sent.items.put(name, merged);
+                        if (myTime > otherTime) {
+                            sent.marks.put(name, myTime);
+                        }
+                    }
+                } else if (my != null) {
+                    // the other copy never had the garment or removed it, and keeps it
+                    // unless the removal came after it was last added back here
+                    if (otherTime > myTime) {
+                        received.marks.put(name, otherTime);
+                    } else {
+                        sent.items.put(name, my);
+                        if (myTime > otherTime) {
+                            sent.marks.put(name, myTime);
+                        }
+                    }
+                } else if (other != null) {
+                    if (myTime > otherTime) {
+                        sent.marks.put(name, myTime);
+                    } else {
+                        received.items.put(name, other);
+                        if (otherTime > myTime) {
+                            received.marks.put(name, otherTime);
+                        }
+                    }
+                } else if (myTime < otherTime) {
+                    // removed from both copies, or never in one, which takes the later removal
+                    received.marks.put(name, otherTime);
+                } else if (otherTime < myTime) {
+                    sent.marks.put(name, myTime);
+                }
+            }
+            if (!received.isEmpty()) {
+                localChanges.put(comparison.path, received);
+            }
+            if (!sent.isEmpty()) {
+                remoteChanges.put(comparison.path, sent);
+            }
+        }
+
+        // send the other copy its changes, then make the local ones
+        List<String> missing = new ArrayList<>();
+        for (String path : localCategories) {
+            if (!remoteCounts.containsKey(path)) {
+                missing.add(path);
+            }
+        }
+        int itemsSent = 0;
+        if (!missing.isEmpty() || !remoteChanges.isEmpty()) {
+            bytes = new ByteArrayOutputStream();
+            request = new DataOutputStream(bytes);
+            request.writeByte(APPLY);
+            request.writeInt(missing.size());
+            for (String path : missing) {
+                writeString(request, path);
+            }
+            request.writeInt(remoteChanges.size());
+            for (Map.Entry<String, Changes> entry : remoteChanges.entrySet()) {
+                writeString(request, entry.getKey());
+                writeChanges(request, entry.getValue().items.values(), entry.getValue().marks);
+            }
+            request.flush();
+            itemsSent = send(remote, bytes.toByteArray()).readInt();
+        }
+        List<String> added = new ArrayList<>();
+        for (String path : remoteCounts.keySet()) {
+            if (!closet.hasCategory(path)) {
+                added.add(path);
+            }
+        }
+        int itemsReceived = 0;
+        if (!added.isEmpty() || !localChanges.isEmpty()) {
+            List<Garment> items = new ArrayList<>();
+            Map<String, Map<String, Long>> marks = new LinkedHashMap<>();
+            for (Map.Entry<String, Changes> entry : localChanges.entrySet()) {
+                items.addAll(entry.getValue().items.values());
+                marks.put(entry.getKey(), entry.getValue().marks);
+            }
+            itemsReceived = items.size() + closet.applySync(added, items, marks);
+        }
+        return new Result(itemsReceived, itemsSent);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: java ClosetSync folder otherFolder user");
+            return;
+        }
+        Path folder = Paths.get(args[0]);
+        Path otherFolder = Paths.get(args[1]);
+        String userName = args[2];
+        Closet closet = new Closet(userName, new ClosetJournal(folder, userName), null);
+        Closet other = new Closet(userName, new ClosetJournal(otherFolder, userName), null);
+        LocalTransport transport = new LocalTransport(other);
+        long start = System.nanoTime();
+        Result result = sync(closet, transport);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        closet.close();
+        other.close();
+        System.out.println("Changed " + result.getItemsReceived() + " items in " + folder
+                + " and " + result.getItemsSent() + " items in " + otherFolder + " in " + millis + "ms.");
+        System.out.println("Sent " + transport.getBytesSent() + " bytes and received "
+                + transport.getBytesReceived() + " bytes.");
+    }
+
+    // Returns the garment both copies should keep in place of the two given garments,
+    // which have the same name
+    static Garment merge(Garment mine, Garment other) {
+        long[] myDays = sortedDays(mine);
+        long[] otherDays = sortedDays(other);
+        // every day worn, the most times it was worn in either copy
+        long[] days = new long[myDays.length + otherDays.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < myDays.length || j < otherDays.length) {
+            if (j == otherDays.length || (i < myDays.length && myDays[i] < otherDays[j])) {
+                days[count++] = myDays[i++];
+            } else if (i == myDays.length || otherDays[j] < myDays[i]) {
+                days[count++] = otherDays[j++];
+            } else {
+                days[count++] = myDays[i++];
+                j++;
+            }
+        }
+        // wears from closets saved before histories were kept are only counted
+        int unrecorded = Math.max(mine.getTimesWorn() - myDays.length, other.getTimesWorn() - otherDays.length);
+
+        Garment newest = newest(mine, other);
+        Garment merged = new Garment(newest.getName(), mine.getType(), newest.getCost(), newest.getNotes(),
+                unrecorded + count, Math.max(mine.getLastWorn(), other.getLastWorn()));
+        if (count > 0) {
+            WearHistory history = new WearHistory();
+            for (int d = 0; d < count; d++) {
+                history.add(days[d]);
+            }
+            merged.restoreWearHistory(history);
+        }
+        return merged;
+    }
+
+    // Returns the garment worn most recently, or if they were last worn on the same day
+    // the one worn most, so both copies pick the same garment
+    private static Garment newest(Garment mine, Garment other) {
+        if (mine.getLastWorn() != other.getLastWorn()) {
+            return mine.getLastWorn() > other.getLastWorn() ? mine : other;
+        }
+        if (mine.getTimesWorn() != other.getTimesWorn()) {
+            return mine.getTimesWorn() > other.getTimesWorn() ? mine : other;
+        }
+        return contentHash(mine) >= contentHash(other) ? mine : other;
+    }
+
+    private static long[] sortedDays(Garment item) {
+        WearHistory history = item.getWearHistory();
+        if (history == null) {
+            return new long[0];
+        }
+        long[] days = history.getDays();
+        Arrays.sort(days);
+        return days;
+    }
+
+    // Returns the fewest levels that give a tree at least one leaf per garment
+    private static int depthFor(int count) {
+        int depth = 0;
+        while (depth < MAX_DEPTH && 1L << (depth * FAN_OUT_BITS) < count) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // Returns the garments in the given leaves of a tree with the given depth
+    private static List<Garment> itemsIn(Iterable<Garment> items, int depth, BitSet leaves) {
+        List<Garment> found = new ArrayList<>();
+        for (Garment item : items) {
+            if (leaves.get(leafOf(item.getName().toLowerCase(), depth))) {
+                found.add(item);
+            }
+        }
+        return found;
+    }
+
+    // Returns the marks of the names in the given leaves of a tree with the given depth
+    private static Map<String, Long> marksIn(Map<String, Long> marks, int depth, BitSet leaves) {
+        Map<String, Long> found = new HashMap<>();
+        for (Map.Entry<String, Long> mark : marks.entrySet()) {
+            if (leaves.get(leafOf(mark.getKey(), depth))) {
+                found.put(mark.getKey(), mark.getValue());
+            }
+        }
+        return found;
+    }
+
+    // Returns the marks of the names removed from the given category of the closet,
+    // leaving out those of the garments added back
+    private static Map<String, Long> removedFrom(Closet closet, String path) {
+        Map<String, Long> removed = new HashMap<>();
+        for (Map.Entry<String, Long> mark : closet.removalsOf(path).entrySet()) {
+            if (closet.findGarment(path, mark.getKey()) == null) {
+                removed.put(mark.getKey(), mark.getValue());
+            }
+        }
+        return removed;
+    }
+
+    // Returns the leaf of a tree with the given depth that the garment with the given
+    // lower case name goes in
+    private static int leafOf(String lowerCaseName, int depth) {
+        if (depth == 0) {
+            return 0;
+        }
+        return (int) (hash(lowerCaseName) >>> (64 - depth * FAN_OUT_BITS));
+    }
+
+    // Returns a hash of everything synced about the garment. The days worn are hashed
+    // as a sum, so copies that logged the same wears in a different order match.
+    static long contentHash(Garment item) {
+        long hash = hash(item.getName());
+        hash = mix(hash ^ Double.doubleToLongBits(item.getCost()));
+        hash = mix(hash ^ hash(item.getNotes()));
+        hash = mix(hash ^ item.getTimesWorn());
+        hash = mix(hash ^ item.getLastWorn());
+        WearHistory history = item.getWearHistory();
+        if (history != null) {
+            long days = 0;
+            for (long day : history.getDays()) {
+                days += mix(day);
+            }
+            hash = mix(hash ^ days);
+        }
+        return hash;
+    }
+
+    // Returns a hash of a name removed at the given time
+    private static long removalHash(String lowerCaseName, long time) {
+        return mix(hash(lowerCaseName) ^ mix(time));
+    }
+
+    // 64-bit FNV-1a hash of the text, mixed so every bit depends on every character
+    private static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // The finalizer of the SplitMix64 generator
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static byte[] request(byte op) {
+        return new byte[] {op};
+    }
+
+    private static DataInputStream send(Transport remote, byte[] request) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(remote.send(request)));
+    }
+
+    private static BitSet readLeaves(DataInputStream in) throws IOException {
+        BitSet leaves = new BitSet();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            leaves.set(in.readInt());
+        }
+        return leaves;
+    }
+
+    private static void writeGarment(DataOutputStream out, Garment item) throws IOException {
+        writeString(out, item.getName());
+        out.writeDouble(item.getCost());
+        writeString(out, item.getNotes());
+        out.writeInt(item.getTimesWorn());
+        out.writeLong(item.getLastWorn());
+        WearHistory history = item.getWearHistory();
+        if (history == null) {
+            out.writeInt(0);
+            out.writeInt(0);
+        } else {
+            out.writeInt(history.getCount());
+            out.writeInt(history.getByteSize());
+            out.write(history.getData(), 0, history.getByteSize());
+        }
+    }
+
+    // Writes the given garments of a category followed by the given marks
+    private static void writeChanges(DataOutputStream out, Collection<Garment> items, Map<String, Long> marks)
+            throws IOException {
+        out.writeInt(items.size());
+        for (Garment item : items) {
+            writeGarment(out, item);
+        }
+        out.writeInt(marks.size());
+        for (Map.Entry<String, Long> mark : marks.entrySet()) {
+            writeString(out, mark.getKey());
+            out.writeLong(mark.getValue());
+        }
+    }
+
+    private static Changes readChanges(DataInputStream in, String type) throws IOException {
+        Changes changes = new Changes();
+        int itemCount = in.readInt();
+        for (int i = 0; i < itemCount; i++) {
+            Garment item = readGarment(in, type);
+            changes.items.put(item.getName().toLowerCase(), item);
+        }
+        int markCount = in.readInt();
+        for (int i = 0; i < markCount; i++) {
+            changes.marks.put(readString(in), in.readLong());
+        }
+        return changes;
+    }
+
+    private static Garment readGarment(DataInputStream in, String type) throws IOException {
+        Garment item = new Garment(readString(in), type, in.readDouble(), readString(in),
+                in.readInt(), in.readLong());
+        int wears = in.readInt();
+        byte[] history = new byte[in.readInt()];
+        in.readFully(history);
+        if (wears > 0) {
+            item.restoreWearHistory(new WearHistory(history, wears));
+        }
+        return item;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+// Class that reads the user's commands one line at a time, from the keyboard or a file.
+// Every read takes a whole line, so a line that cannot be parsed is still used up and
+// the next read starts on the line after it.
+// Bytes are read in large blocks into one buffer that is reused. Numbers, prices and
+// dates are parsed straight from the buffer without creating a String. Only input in
+// an unusual form, such as a price written as 1e3, is handed to the JDK's parsers,
+// so the same input is accepted as before.
+// Lines end with \n, \r\n or \r and are read as UTF-8.
+public class CommandReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // most digits of a price parsed by hand, so the digits fit exactly in a double
+    private static final int MAX_PRICE_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // shared by everything that reads from the keyboard, so no input is lost
+    // in the buffer of a reader that is no longer used
+    private static CommandReader standardInput;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    // the unread bytes are the ones from position up to limit
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    // true after a line ended with \r, so a \n right after it is not another line
+    private boolean afterCarriageReturn;
+    // the current line is from lineStart up to lineEnd, filled in by nextLineBounds
+    private int lineStart;
+    private int lineEnd;
+
+    // Constructs a reader of the given stream
+    public CommandReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Returns the reader of the keyboard (standard input)
+    public static synchronized CommandReader forStandardInput() {
+        if (standardInput == null) {
+            standardInput = new CommandReader(System.in);
+        }
+        return standardInput;
+    }
+
+    // Returns a reader of the given file
+    public static CommandReader forFile(Path file) throws IOException {
+        return new CommandReader(Files.newInputStream(file));
+    }
+
+    // Returns true if there is another line to read
+    public boolean hasNextLine() {
+        skipNewlineAfterCarriageReturn();
+        return position < limit || fill();
+    }
+
+    // Reads the next line, without its line ending.
+    // Throws a NoSuchElementException if there are no more lines.
+    public String nextLine() {
+        nextLineBounds();
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    // Reads the next line and returns the whole number written on it, ignoring
+    // whitespace around it.
+    // Throws a NumberFormatException if the line is not a whole number.
+    public int nextInt() {
+        nextLineBounds();
+        int start = trimStart();
+        int end = trimEnd(start);
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        // nine digits always fit in an int
+        if (i < end && end - i <= 9) {
+            int value = 0;
+            while (i < end && isDigit(buffer[i])) {
+                value = value * 10 + (buffer[i] - '0');
+                i++;
+            }
+            if (i == end) {
+                return negative ? -value : value;
+            }
+        }
+        return Integer.parseInt(lineText(start, end));
+    }
+
+    // Reads the next line and returns the price written on it, such as 12, 12.5 or .99,
+    // ignoring whitespace around it.
+    // Throws a NumberFormatException if the line is not a number.
+    public double nextPrice() {
+        nextLineBounds();
+        int start = trimStart();
+        int end = trimEnd(start);
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long digits = 0;
+        int digitCount = 0;
+        int decimals = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (isDigit(b)) {
+                digits = digits * 10 + (b - '0');
+                digitCount++;
+                if (point) {
+                    decimals++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digitCount > 0 && digitCount <= MAX_PRICE_DIGITS) {
+            // both numbers are exact, so the division gives the correctly rounded price
+            double value = digits / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(lineText(start, end));
+    }
+
+    // Reads the next line and returns the MO/DA/YEAR date written on it as days since
+    // 01/01/1970, ignoring whitespace around it.
+    // Throws an IllegalArgumentException if the line is not a valid date.
+    public long nextDate() {
+        nextLineBounds();
+        int start = trimStart();
+        int end = trimEnd(start);
+        int firstSlash = indexOf('/', start, end);
+        int secondSlash = indexOf('/', firstSlash + 1, end);
+        if (firstSlash > start && firstSlash - start <= 2
+                && secondSlash > firstSlash + 1 && secondSlash - firstSlash <= 3
+                && end - secondSlash == 5) {
+            int month = digits(start, firstSlash);
+            int day = digits(firstSlash + 1, secondSlash);
+            int year = digits(secondSlash + 1, end);
+            if (month >= 0 && day >= 0 && year >= 0) {
+                if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+                    throw new IllegalArgumentException("Invalid date: " + lineText(start, end));
+                }
+                return epochDay(year, month, day);
+            }
+        }
+        return Garment.parseDate(lineText(start, end));
+    }
+
+    // Closes the stream being read
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Finds the next line and moves past it and its line ending
+    private void nextLineBounds() {
+        if (!hasNextLine()) {
+            throw new NoSuchElementException("No line found");
+        }
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    afterCarriageReturn = b == '\r';
+                    return;
+                }
+            }
+            scanned = limit - position;
+            if (!fill()) {
+                // the last line has no line ending
+                lineStart = position;
+                lineEnd = limit;
+                position = limit;
+                return;
+            }
+            scanned += position;
+        }
+    }
+
+    // Reads more bytes after the unread ones, moving the unread bytes to the start of
+    // the buffer or making the buffer larger if they fill it.
+    // Returns false if there were no more bytes to read.
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+        try {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Moves past the \n of a \r\n line ending
+    private void skipNewlineAfterCarriageReturn() {
+        if (afterCarriageReturn && (position < limit || fill())) {
+            afterCarriageReturn = false;
+            if (buffer[position] == '\n') {
+                position++;
+            }
+        }
+    }
+
+    // Returns the start of the current line without the whitespace before it
+    private int trimStart() {
+        int start = lineStart;
+        while (start < lineEnd && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    // Returns the end of the current line without the whitespace after it
+    private int trimEnd(int start) {
+        int end = lineEnd;
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    // Returns the index of the given byte between start and end, or -1 if it is not there
+    private int indexOf(char c, int start, int end) {
+        if (start < 0) {
+            return -1;
+        }
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the number written in the digits between start and end,
+    // or -1 if there is anything else there
+    private int digits(int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            if (!isDigit(buffer[i])) {
+                return -1;
+            }
+            value = value * 10 + (buffer[i] - '0');
+        }
+        return value;
+    }
+
+    private String lineText(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    // Returns the given date as days since 01/01/1970, worked out without creating a
+    // LocalDate; the reverse of WearHistory.monthOf
+    static long epochDay(int year, int month, int day) {
+        // Howard Hinnant's days_from_civil algorithm, which counts years from March
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
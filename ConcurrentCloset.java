@@ -0,0 +1,252 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+// Class representing a closet that many threads can use at the same time.
+// Garments can be added, removed and logged as worn from any number of threads
+// without a lock on the whole closet:
+// - each category is a skip list, which stays sorted while it is changed concurrently
+// - the skip list holds copies of the garments that are never changed, so it can
+//   compare them from any thread. A wear changes the garment while holding its lock,
+//   then swaps its old copy in the skip list for a new one.
+// - the total value is kept as a count of cents that threads add to without waiting
+// Changes to a category share its locks, so they never wait on each other. Listing a
+// category takes every lock alone, so every list sees the category in a single state.
+// The locks are striped by thread so threads changing the same category do not all
+// update the same lock.
+// A garment added to the closet is only changed by the closet from then on. The
+// garments it returns are the unchanging copies, without their wear history, so they
+// can be read from any thread. The closet is only kept in memory.
+public class ConcurrentCloset {
+
+    // number of locks per category, a power of two at least the number of processors
+    private static final int STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) * 2;
+
+    private final Map<String, Category> closet;
+    // total value of every garment, in cents
+    private final LongAdder totalCents;
+
+    // The garments of one type
+    private static class Category {
+        // the copies of the garments, in order
+        private final ConcurrentSkipListSet<Garment> items = new ConcurrentSkipListSet<>();
+        // case-insensitive name index, kept in step with items
+        private final ConcurrentHashMap<String, Entry> names = new ConcurrentHashMap<>();
+        // shared by changes, held alone while the category is listed
+        private final StampedLock[] locks = new StampedLock[STRIPES];
+
+        Category() {
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new StampedLock();
+            }
+        }
+
+        // Returns the lock the current thread shares while changing the category
+        StampedLock sharedLock() {
+            return locks[(int) Thread.currentThread().getId() & (locks.length - 1)];
+        }
+    }
+
+    // A garment of the closet and the copy of it in its category's skip list.
+    // Both are only changed while holding the entry's lock.
+    private static class Entry {
+        private final Garment item;
+        private Garment copy;
+
+        Entry(Garment item) {
+            this.item = item;
+        }
+    }
+
+    // Constructs an empty closet with the default categories
+    public ConcurrentCloset() {
+        this(CategoryRegistry.DEFAULT_CATEGORIES);
+    }
+
+    // Constructs an empty closet with the given categories
+    public ConcurrentCloset(List<String> types) {
+        Map<String, Category> categories = new LinkedHashMap<>();
+        for (String type : types) {
+            categories.put(CategoryRegistry.normalize(type), new Category());
+        }
+        closet = Collections.unmodifiableMap(categories);
+        totalCents = new LongAdder();
+    }
+
+    // Returns the garment of the given type with the given name as it is now,
+    // or null if there is not one
+    public Garment findGarment(String type, String name) {
+        Entry entry = category(type).names.get(name.toLowerCase());
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.copy;
+        }
+    }
+
+    // Adds the given garment to its category.
+    // Returns false if the category already has a garment with the same name.
+    public boolean addGarment(Garment item) {
+        Category category = category(item.getType());
+        Entry entry = new Entry(item);
+        StampedLock lock = category.sharedLock();
+        long stamp = lock.readLock();
+        try {
+            synchronized (entry) {
+                if (category.names.putIfAbsent(item.getName().toLowerCase(), entry) != null) {
+                    return false;
+                }
+                // copied only once it is in the closet, so a wear by another thread
+                // that removes it first is never missed
+                entry.copy = copyOf(item);
+                category.items.add(entry.copy);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        totalCents.add(cents(entry.copy));
+        return true;
+    }
+
+    // Removes the garment of the given type with the given name.
+    // Returns the garment as it was when removed, or null if there was not one.
+    public Garment removeGarment(String type, String name) {
+        Category category = category(type);
+        String key = name.toLowerCase();
+        Entry entry = category.names.get(key);
+        if (entry == null) {
+            return null;
+        }
+        Garment removed;
+        StampedLock lock = category.sharedLock();
+        long stamp = lock.readLock();
+        try {
+            synchronized (entry) {
+                // another thread may have removed it first
+                if (!category.names.remove(key, entry)) {
+                    return null;
+                }
+                category.items.remove(entry.copy);
+                removed = entry.copy;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        totalCents.add(-cents(removed));
+        return removed;
+    }
+
+    // Logs a wear on the given day (days since 01/01/1970) of the garment of the given
+    // type with the given name. Returns the garment as it is after the wear, or null if
+    // there is not one.
+    public Garment wearGarment(String type, String name, long day) {
+        Category category = category(type);
+        String key = name.toLowerCase();
+        Entry entry = category.names.get(key);
+        if (entry == null) {
+            return null;
+        }
+        StampedLock lock = category.sharedLock();
+        long stamp = lock.readLock();
+        try {
+            synchronized (entry) {
+                // a garment removed by another thread must not be put back
+                if (category.names.get(key) != entry) {
+                    return null;
+                }
+                category.items.remove(entry.copy);
+                entry.item.increaseWear(day);
+                entry.copy = copyOf(entry.item);
+                category.items.add(entry.copy);
+                return entry.copy;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Logs a wear of the garment on the given MO/DA/YEAR date.
+    // Throws an IllegalArgumentException if the date is not valid.
+    public Garment wearGarment(String type, String name, String date) {
+        return wearGarment(type, name, Garment.parseDate(date));
+    }
+
+    // Returns the garments of the given type in order, as they are now.
+    // Changes to the category wait while it is copied, so the list is never torn.
+    public Garment[] getCategory(String type) {
+        Category category = category(type);
+        long[] stamps = new long[category.locks.length];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = category.locks[i].writeLock();
+        }
+        try {
+            return category.items.toArray(new Garment[0]);
+        } finally {
+            for (int i = 0; i < stamps.length; i++) {
+                category.locks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    // Prints every garment within the closet, separated by the type of garment
+    public void printCloset(TableRenderer table) {
+        table.header();
+        for (String type : closet.keySet()) {
+            for (Garment item : getCategory(type)) {
+                table.row(item);
+            }
+        }
+        table.line(" ");
+        table.line("Total closet value: $" + getTotalValue());
+    }
+
+    // Returns the number of garments in the closet
+    public int size() {
+        int size = 0;
+        for (Category category : closet.values()) {
+            size += category.names.size();
+        }
+        return size;
+    }
+
+    // Returns the total value of every garment in the closet
+    public double getTotalValue() {
+        return totalCents.sum() / 100.0;
+    }
+
+    // Returns the paths of the closet's categories
+    public List<String> getCategories() {
+        return List.copyOf(closet.keySet());
+    }
+
+    // Returns the category of the given type.
+    // Throws an IllegalArgumentException if there is no such type.
+    private Category category(String type) {
+        Category category = closet.get(type);
+        if (category == null) {
+            category = closet.get(CategoryRegistry.normalize(type));
+        }
+        if (category == null) {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+        return category;
+    }
+
+    // Returns a copy of the garment without its wear history, which is never changed
+    private static Garment copyOf(Garment item) {
+        return item.withoutHistory();
+    }
+
+    // Returns the cost of the garment rounded to whole cents, so the total is
+    // the same whatever order garments are added and removed in
+    private static long cents(Garment item) {
+        return Math.round(item.getCost() * 100);
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Changes a ConcurrentCloset from many threads at once and checks that it stays consistent.
+//
+// Usage: java ConcurrentClosetStressTest [items] [threads] [seconds] [seed]
+//   items    number of garments in the closet, default 100000
+//   threads  number of threads changing the closet, default 16
+//   seconds  how long the threads run, default 10
+//   seed     seed of the random choices, default a random one
+//
+// Each thread logs wears of random garments on random days, and one time in ten removes
+// a random garment or adds it back. Meanwhile another thread keeps listing the
+// categories and checks that every list is in order. Once the threads stop the closet
+// is checked:
+// - every category is in order and its garments can be found by their names
+// - the closet's copy of every garment in it matches the garment
+// - no garment is both removed and listed, and the size matches the lists
+// - the total value matches the garments, and no wear was lost or counted twice
+// The first failure is printed with the seed, so it can be run again.
+public class ConcurrentClosetStressTest {
+
+    private static final String[] WORDS = {"black", "white", "linen", "shirt", "denim", "jacket", "wool",
+            "red", "boots", "silk", "scarf", "vintage", "cotton", "navy", "striped", "leather"};
+    private static final long FIRST_DAY = 17_000;
+    private static final int DAYS = 3_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : new Random().nextLong();
+        System.out.println("Seed " + seed + ", " + itemCount + " items, " + threads + " threads, "
+                + seconds + " seconds");
+
+        Random random = new Random(seed);
+        ConcurrentCloset closet = new ConcurrentCloset();
+        List<String> types = closet.getCategories();
+        Garment[] items = new Garment[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            // few distinct prices, so many garments tie on every key but the name
+            items[i] = new Garment(name, types.get(i % types.size()), random.nextInt(20) * 5, "");
+            closet.addGarment(items[i]);
+        }
+
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicLong wears = new AtomicLong();
+        AtomicLong operations = new AtomicLong();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long workerSeed = seed + t + 1;
+            workers[t] = new Thread(() -> {
+                Random choices = new Random(workerSeed);
+                awaitStart(start);
+                long count = 0;
+                long worn = 0;
+                while ((count & 255) != 0 || System.nanoTime() < end) {
+                    Garment item = items[choices.nextInt(items.length)];
+                    int pick = choices.nextInt(20);
+                    if (pick == 0) {
+                        closet.removeGarment(item.getType(), item.getName());
+                    } else if (pick == 1) {
+                        closet.addGarment(item);
+                    } else if (closet.wearGarment(item.getType(), item.getName(),
+                            FIRST_DAY + choices.nextInt(DAYS)) != null) {
+                        worn++;
+                    }
+                    count++;
+                }
+                wears.addAndGet(worn);
+                operations.addAndGet(count);
+            });
+            workers[t].start();
+        }
+        Thread reader = new Thread(() -> {
+            awaitStart(start);
+            while (System.nanoTime() < end && failure.get() == null) {
+                for (String type : types) {
+                    String error = checkOrder(type, closet.getCategory(type));
+                    if (error != null) {
+                        failure.compareAndSet(null, "while changing: " + error);
+                    }
+                }
+            }
+        });
+        reader.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        reader.join();
+        if (failure.get() != null) {
+            fail(seed, failure.get());
+        }
+        check(closet, items, wears.get(), seed);
+        System.out.println("Passed: " + operations.get() + " operations, " + wears.get() + " wears in "
+                + seconds + "s (" + operations.get() / seconds + " operations/s)");
+    }
+
+    private static void awaitStart(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns what is wrong with a listed category, or null if it is in order
+    private static String checkOrder(String type, Garment[] category) {
+        for (int i = 0; i < category.length; i++) {
+            if (i > 0 && category[i - 1].compareTo(category[i]) >= 0) {
+                return type + " is out of order at " + category[i - 1].getName() + ", " + category[i].getName();
+            }
+            if (!category[i].getType().equals(type)) {
+                return category[i].getName() + " is listed in " + type;
+            }
+        }
+        return null;
+    }
+
+    // Checks every invariant of the closet, exiting with a message on the first failure
+    private static void check(ConcurrentCloset closet, Garment[] items, long wears, long seed) {
+        long cents = 0;
+        int count = 0;
+        Set<String> listed = new HashSet<>();
+        for (String type : closet.getCategories()) {
+            Garment[] category = closet.getCategory(type);
+            String error = checkOrder(type, category);
+            if (error != null) {
+                fail(seed, error);
+            }
+            for (Garment item : category) {
+                Garment found = closet.findGarment(type, item.getName().toUpperCase());
+                if (found == null || found.getTimesWorn() != item.getTimesWorn()) {
+                    fail(seed, item.getName() + " is listed but cannot be found by its name");
+                }
+                listed.add(type + "/" + item.getName());
+                cents += Math.round(item.getCost() * 100);
+            }
+            count += category.length;
+        }
+        long timesWorn = 0;
+        for (Garment item : items) {
+            timesWorn += item.getTimesWorn();
+            Garment copy = closet.findGarment(item.getType(), item.getName());
+            boolean found = copy != null;
+            if (found != listed.contains(item.getType() + "/" + item.getName())) {
+                fail(seed, item.getName() + (found ? " is found but not listed" : " is listed but not found"));
+            }
+            if (found && (copy.getTimesWorn() != item.getTimesWorn() || copy.getLastWorn() != item.getLastWorn())) {
+                fail(seed, item.getName() + " is listed as worn " + copy.getTimesWorn() + " times instead of "
+                        + item.getTimesWorn());
+            }
+        }
+        if (count != closet.size()) {
+            fail(seed, count + " items are listed but the size is " + closet.size());
+        }
+        if (cents != Math.round(closet.getTotalValue() * 100)) {
+            fail(seed, "the total value is " + closet.getTotalValue() + " but the items add up to " + cents / 100.0);
+        }
+        if (timesWorn != wears) {
+            fail(seed, wears + " wears were logged but " + timesWorn + " were counted");
+        }
+    }
+
+    private static void fail(long seed, String message) {
+        System.out.println("FAILED (seed " + seed + "): " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+// Class that finds garments of a closet that are likely to be the same garment entered
+// more than once, in the same category or in different ones.
+// Two garments are likely duplicates if:
+// - their names are the same once normalized: in lower case, with punctuation and
+//   extra whitespace removed, so "Black Tee" matches "black  tee "
+// - or 60% of the words of their names are shared, and so are 60% of the words of
+//   their names and notes together, and any numbers in their names are the same,
+//   so "Shirt 1" and "Shirt 2" are not duplicates
+//
+// Comparing every pair of garments would take hours on a large closet, so the pairs
+// worth comparing are found with MinHash and locality-sensitive hashing (LSH). The
+// words of each garment are hashed with BANDS * ROWS hash functions, and the smallest
+// hash of each function is kept. For two garments, each smallest hash is the same with
+// a chance equal to the share of words they have in common. The smallest hashes are
+// split into BANDS bands of ROWS, and garments with all the same hashes in any band are
+// compared, which finds most pairs sharing 60% of their words and few that share less.
+// Garments with the same normalized name are always found. Each band is sorted and its
+// pairs are compared on its own thread, so only the duplicates found are kept. The pairs
+// are then joined into groups, each holding only duplicates of its first garment.
+public class DuplicateFinder {
+
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    // the most garments after it in the same bucket that a garment is compared with,
+    // so buckets of many nearly identical garments do not give too many pairs
+    private static final int MAX_PAIRS_PER_ITEM = 4;
+    private static final double MIN_NAME_SIMILARITY = 0.6;
+    private static final double MIN_SIMILARITY = 0.6;
+    // keeps words of names and words of notes apart when they are hashed
+    private static final long NOTES_SEED = 0x9E3779B97F4A7C15L;
+
+    // the hash functions, each multiplying a word's hash by an odd number and adding another
+    private static final long[] MULTIPLIERS = new long[BANDS * ROWS];
+    private static final long[] OFFSETS = new long[BANDS * ROWS];
+
+    static {
+        for (int f = 0; f < MULTIPLIERS.length; f++) {
+            MULTIPLIERS[f] = mix(2 * f + 1) | 1;
+            OFFSETS[f] = mix(2 * f + 2);
+        }
+    }
+
+    private final Closet closet;
+
+    // Garments that are likely duplicates of each other, and the garment they would be merged into
+    public static class Group {
+        private final List<Garment> items;
+        private final Garment merged;
+
+        Group(List<Garment> items) {
+            this.items = items;
+            this.merged = merge(items);
+        }
+
+        public List<Garment> getItems() {
+            return items;
+        }
+
+        public Garment getMerged() {
+            return merged;
+        }
+    }
+
+    // Constructs a finder of the duplicates in the given closet
+    public DuplicateFinder(Closet closet) {
+        this.closet = closet;
+    }
+
+    // Returns the groups of likely duplicates in the closet, in the order their first
+    // garments are shown in the closet
+    public List<Group> find() {
+        List<Garment> all = new ArrayList<>();
+        for (String type : closet.getCategories()) {
+            all.addAll(closet.getCategory(type));
+        }
+        Garment[] items = all.toArray(new Garment[0]);
+        int count = items.length;
+        Words words = new Words(items);
+
+        // pairs of likely duplicates in the same bucket of a band, or with the same name,
+        // with each band sorted and checked on its own thread
+        int indexBits = Math.max(1, 64 - Long.numberOfLeadingZeros(count));
+        long[][] pairs = new long[BANDS + 1][];
+        IntStream.rangeClosed(0, BANDS).parallel().forEach(band -> {
+            long[] keys = new long[count];
+            int keyCount = 0;
+            long[][] hashed = band == BANDS ? words.nameWords : words.all;
+            for (int i = 0; i < count; i++) {
+                if (hashed[i].length > 0) {
+                    long key = band == BANDS ? words.names[i] : words.bands[i * BANDS + band];
+                    // the garment's index goes in the low bits, so sorting keeps a bucket together
+                    keys[keyCount++] = (key >>> indexBits << indexBits) | i;
+                }
+            }
+            Arrays.sort(keys, 0, keyCount);
+            pairs[band] = bucketPairs(keys, keyCount, indexBits, band == BANDS ? null : words);
+        });
+
+        // join the pairs into groups, each led by its garment shown first
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        for (long[] bandPairs : pairs) {
+            for (long pair : bandPairs) {
+                int first = root(parents, (int) (pair >>> 32));
+                int second = root(parents, (int) pair);
+                parents[Math.max(first, second)] = Math.min(first, second);
+            }
+        }
+        // pairs are joined through each other, so a garment can end up with one it is not
+        // a duplicate of, such as "black cotton tee" with "cotton tee shirt" by way of
+        // "black cotton tee shirt". Each group keeps the duplicates of its first garment,
+        // and the garments left out are grouped again in the same way.
+        Map<Integer, List<Integer>> joined = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            joined.computeIfAbsent(root(parents, i), r -> new ArrayList<>()).add(i);
+        }
+        Map<Integer, List<Garment>> byLeader = new TreeMap<>();
+        for (List<Integer> left : joined.values()) {
+            while (left.size() > 1) {
+                int leader = left.get(0);
+                List<Garment> group = new ArrayList<>();
+                List<Integer> rest = new ArrayList<>();
+                group.add(items[leader]);
+                for (int i : left.subList(1, left.size())) {
+                    if (words.isDuplicate(leader, i)) {
+                        group.add(items[i]);
+                    } else {
+                        rest.add(i);
+                    }
+                }
+                if (group.size() > 1) {
+                    byLeader.put(leader, group);
+                }
+                left = rest;
+            }
+        }
+        List<Group> groups = new ArrayList<>();
+        for (List<Garment> group : byLeader.values()) {
+            groups.add(new Group(group));
+        }
+        return groups;
+    }
+
+    // The hashed words of every garment, worked out once in parallel
+    private static class Words {
+        // the hash of each garment's normalized name, and of the numbers in it
+        private final long[] names;
+        private final long[] numbers;
+        // the hashed words of each garment's name, and of its name and notes, sorted
+        private final long[][] nameWords;
+        private final long[][] all;
+        // the BANDS band hashes of each garment, one after another
+        private final long[] bands;
+
+        private Words(Garment[] items) {
+            int count = items.length;
+            names = new long[count];
+            numbers = new long[count];
+            nameWords = new long[count][];
+            all = new long[count][];
+            bands = new long[count * BANDS];
+            IntStream.range(0, count).parallel().forEach(i -> {
+                long[] name = new long[2];
+                nameWords[i] = hashWords(items[i].getName(), 0, name);
+                names[i] = name[0];
+                numbers[i] = name[1];
+                long[] noteWords = hashWords(items[i].getNotes(), NOTES_SEED, new long[2]);
+                long[] both = Arrays.copyOf(nameWords[i], nameWords[i].length + noteWords.length);
+                System.arraycopy(noteWords, 0, both, nameWords[i].length, noteWords.length);
+                all[i] = distinct(both);
+                bandHashes(all[i], bands, i * BANDS);
+            });
+        }
+
+        // Returns whether the two garments are likely duplicates
+        private boolean isDuplicate(int first, int second) {
+            return names[first] == names[second]
+                    || (numbers[first] == numbers[second]
+                    && similarity(nameWords[first], nameWords[second]) >= MIN_NAME_SIMILARITY
+                    && similarity(all[first], all[second]) >= MIN_SIMILARITY);
+        }
+    }
+
+    // Returns one garment in place of the given duplicates. It keeps the name and type of
+    // the one worn most and the highest cost, adds up their wears and was last worn
+    // on the latest day any of them was. Notes that differ are joined together.
+    static Garment merge(List<Garment> items) {
+        Garment kept = items.get(0);
+        double cost = 0;
+        int timesWorn = 0;
+        long lastWorn = 0;
+        Set<String> notes = new LinkedHashSet<>();
+        List<long[]> histories = new ArrayList<>();
+        int days = 0;
+        for (Garment item : items) {
+            if (item.getTimesWorn() > kept.getTimesWorn()) {
+                kept = item;
+            }
+            cost = Math.max(cost, item.getCost());
+            timesWorn += item.getTimesWorn();
+            lastWorn = Math.max(lastWorn, item.getLastWorn());
+            if (item.getWearHistory() != null) {
+                histories.add(item.getWearHistory().getDays());
+                days += item.getWearHistory().getCount();
+            }
+        }
+        notes.add(kept.getNotes().trim());
+        for (Garment item : items) {
+            notes.add(item.getNotes().trim());
+        }
+        notes.remove("");
+
+        Garment merged = new Garment(kept.getName(), kept.getType(), cost, String.join("; ", notes),
+                timesWorn, lastWorn);
+        if (days > 0) {
+            long[] allDays = new long[days];
+            int filled = 0;
+            for (long[] history : histories) {
+                System.arraycopy(history, 0, allDays, filled, history.length);
+                filled += history.length;
+            }
+            Arrays.sort(allDays);
+            WearHistory history = new WearHistory();
+            for (long day : allDays) {
+                history.add(day);
+            }
+            merged.restoreWearHistory(history);
+        }
+        return merged;
+    }
+
+    // Returns the pairs of likely duplicates in the same bucket of the sorted keys, as the
+    // index of the first garment in the high 32 bits and the index of the second in the
+    // low 32 bits. Without words, every garment in a bucket is a duplicate of the next.
+    private static long[] bucketPairs(long[] keys, int keyCount, int indexBits, Words words) {
+        long indexMask = (1L << indexBits) - 1;
+        long[] pairs = new long[16];
+        int pairCount = 0;
+        for (int start = 0; start < keyCount; ) {
+            long bucket = keys[start] >>> indexBits;
+            int end = start + 1;
+            while (end < keyCount && keys[end] >>> indexBits == bucket) {
+                end++;
+            }
+            for (int i = start; i < end; i++) {
+                int first = (int) (keys[i] & indexMask);
+                int last = words == null ? Math.min(end - 1, i + 1) : Math.min(end - 1, i + MAX_PAIRS_PER_ITEM);
+                for (int j = i + 1; j <= last; j++) {
+                    int second = (int) (keys[j] & indexMask);
+                    if (words == null || words.isDuplicate(first, second)) {
+                        if (pairCount == pairs.length) {
+                            pairs = Arrays.copyOf(pairs, pairCount * 2);
+                        }
+                        pairs[pairCount++] = (long) first << 32 | second;
+                    }
+                }
+            }
+            start = end;
+        }
+        return Arrays.copyOf(pairs, pairCount);
+    }
+
+    // Works out the garment's smallest hash of each of the BANDS * ROWS hash functions,
+    // and puts the hash of each band of ROWS of them into bands from the given position
+    private static void bandHashes(long[] words, long[] bands, int position) {
+        long[] smallest = new long[BANDS * ROWS];
+        Arrays.fill(smallest, Long.MAX_VALUE);
+        for (long word : words) {
+            for (int f = 0; f < smallest.length; f++) {
+                smallest[f] = Math.min(smallest[f], word * MULTIPLIERS[f] + OFFSETS[f]);
+            }
+        }
+        for (int band = 0; band < BANDS; band++) {
+            long hash = band;
+            for (int row = 0; row < ROWS; row++) {
+                hash = mix(hash ^ smallest[band * ROWS + row]);
+            }
+            bands[position + band] = hash;
+        }
+    }
+
+    // Returns the share of the words in either set that are in both, from 0 to 1.
+    // Both sets must be sorted.
+    private static double similarity(long[] first, long[] second) {
+        if (first.length == 0 && second.length == 0) {
+            return 1;
+        }
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] == second[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (first[i] < second[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return shared / (double) (first.length + second.length - shared);
+    }
+
+    // Returns the hashes of the words of the text, sorted and without repeats. A word is
+    // a run of letters and digits, in lower case, so punctuation and extra whitespace are
+    // ignored. Sets text[0] to a hash of the words in order, the same for texts that are
+    // the same once normalized, and text[1] to a hash of the words that are numbers.
+    private static long[] hashWords(String text, long seed, long[] hashes) {
+        long[] words = new long[8];
+        int count = 0;
+        long word = 0xcbf29ce484222325L;
+        boolean inWord = false;
+        boolean number = true;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                // 64-bit FNV-1a hash of the word
+                word ^= Character.toLowerCase(c);
+                word *= 0x100000001b3L;
+                number &= Character.isDigit(c);
+                inWord = true;
+            } else if (inWord) {
+                word = mix(word);
+                hashes[0] = mix(hashes[0] ^ word);
+                if (number) {
+                    hashes[1] += word;
+                }
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                words[count++] = mix(word ^ seed);
+                word = 0xcbf29ce484222325L;
+                inWord = false;
+                number = true;
+            }
+        }
+        return distinct(Arrays.copyOf(words, count));
+    }
+
+    // Returns the values sorted and without repeats
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (count == 0 || values[i] != values[count - 1]) {
+                values[count++] = values[i];
+            }
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    // Returns the first garment of the group the garment is in, shortening the path to it
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    // The finalizer of the SplitMix64 generator
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
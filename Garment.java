@@ -1,39 +1,126 @@
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
 
 // Class representing an article of clothing.
 public class Garment implements Comparable<Garment> {
 
+    // accepts dates written as MO/DA/YEAR, with or without leading zeros
+    private static final DateTimeFormatter INPUT_FORMAT =
+            DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+    // format used when printing the last worn date
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
 
     // name of item
     private final String name;
-    // type of clothing
-    private final String type;
+    // category of clothing: its id in the registry of the closet holding the garment, or
+    // if categories is null, the id shared by garments with its type that are not in a
+    // closet yet, see CategoryRegistry
+    private CategoryRegistry categories;
+    private int categoryId;
     // original cost
     private final double cost;
     // number of times worn
     private int timesWorn;
-    // most recent date worn
-    private String lastWorn;
+    // most recent date worn, stored as days since 01/01/1970
+    private long lastWorn;
     // notes
     private final String notes;
+    // every day the item was worn, or null until it is first worn
+    private WearHistory wearHistory;
 
     // Constructs the Garment class
     public Garment(String name, String type, double cost, String notes) {
+        this(name, type, cost, notes, 0, 0);
+    }
+
+    // Constructs a Garment that has already been worn, such as one loaded from a saved closet
+    public Garment(String name, String type, double cost, String notes, int timesWorn, long lastWorn) {
+        this(name, null, CategoryRegistry.looseId(type), cost, notes, timesWorn, lastWorn);
+    }
+
+    // Constructs a garment of the category with the given id in the given registry of a
+    // closet, such as one read from its snapshot
+    Garment(String name, CategoryRegistry categories, int categoryId, double cost, String notes,
+            int timesWorn, long lastWorn) {
         this.name = name;
-        this.type = type;
+        this.categories = categories;
+        this.categoryId = categoryId;
         this.cost = cost;
-        this.timesWorn = 0;
-        this.lastWorn = "N/A";
+        this.timesWorn = timesWorn;
+        this.lastWorn = lastWorn;
         this.notes = notes;
     }
 
+    // Constructs a garment with no category that is only used as a boundary, see wornFrom
+    private Garment(long lastWorn) {
+        this.name = "";
+        this.categoryId = -1;
+        this.cost = Double.NEGATIVE_INFINITY;
+        this.timesWorn = 1;
+        this.lastWorn = lastWorn;
+        this.notes = "";
+    }
+
+    // Returns a garment that sorts after every unworn garment and every garment last
+    // worn before the given day (days since 01/01/1970), and before every garment last
+    // worn on or after it. It is only used as a boundary and never added to a closet.
+    static Garment wornFrom(long day) {
+        return new Garment(day);
+    }
+
+    // Constructs a copy of the given garment with its own copy of the wear history
+    public Garment(Garment other) {
+        this.name = other.name;
+        this.categories = other.categories;
+        this.categoryId = other.categoryId;
+        this.cost = other.cost;
+        this.timesWorn = other.timesWorn;
+        this.lastWorn = other.lastWorn;
+        this.notes = other.notes;
+        this.wearHistory = other.wearHistory == null ? null : other.wearHistory.copy();
+    }
+
     // Returns the name of the garment
     public String getName() {
         return name;
     }
 
+    // Returns the type of the garment, the path of its category such as "tops" or "shoes/boots"
+    public String getType() {
+        return categories != null ? categories.pathOf(categoryId) : CategoryRegistry.loosePath(categoryId);
+    }
+
+    // Returns the id of the garment's category in the closet holding it,
+    // or -1 if it has not been added to a closet
+    public int getCategoryId() {
+        return categories != null ? categoryId : -1;
+    }
+
+    // Returns true if the garment's category is one of the given registry
+    boolean isIn(CategoryRegistry registry) {
+        return categories == registry && registry != null;
+    }
+
+    // Returns the category of the garment in the closet holding it, or null if it has
+    // not been added to a closet
+    CategoryRegistry.Category getCategory() {
+        return categories != null ? categories.get(categoryId) : null;
+    }
+
+    // Puts the garment in the category with the given id of the given registry. Only used
+    // by a closet, when it takes the garment in or moves it to another category.
+    void setCategory(CategoryRegistry categories, int categoryId) {
+        this.categories = categories;
+        this.categoryId = categoryId;
+    }
+
+    // Returns a copy of the garment without its wear history
+    Garment withoutHistory() {
+        return new Garment(name, categories, categoryId, cost, notes, timesWorn, lastWorn);
+    }
+
     // Returns the notes of the garment
     public String getNotes() {
         return notes;
@@ -49,25 +136,93 @@ public class Garment implements Comparable<Garment> {
         return cost;
     }
 
+    // Returns the most recent date the item was worn as days since 01/01/1970
+    public long getLastWorn() {
+        return lastWorn;
+    }
+
     // Increases the number of times the garment has been worn by 1
-    // and saves the new date in which the item was worn
+    // and saves the new date in which the item was worn.
+    // Throws an IllegalArgumentException if the date is not a valid MO/DA/YEAR date,
+    // in which case the garment is left unchanged.
     public void increaseWear(String date) {
+        increaseWear(parseDate(date));
+    }
+
+    // Increases the number of times the garment has been worn by 1
+    // and saves the given day (days since 01/01/1970) as the last date it was worn
+    public void increaseWear(long day) {
         timesWorn++;
-        this.lastWorn = date;
+        this.lastWorn = day;
+        if (wearHistory == null) {
+            wearHistory = new WearHistory();
+        }
+        wearHistory.add(day);
+    }
+
+    // Takes back the wear logged last, as when it is undone, and sets the last date the
+    // garment was worn back to the given day (days since 01/01/1970)
+    public void removeLastWear(long previousLastWorn) {
+        timesWorn--;
+        lastWorn = timesWorn == 0 ? 0 : previousLastWorn;
+        if (wearHistory != null) {
+            wearHistory.removeLast();
+            if (wearHistory.getCount() == 0) {
+                wearHistory = null;
+            }
+        }
+    }
+
+    // Returns every day the garment was worn, or null if it has no wears on record.
+    // Closets saved before wear histories were kept only have the number of wears
+    // and the last one, so the history can hold fewer wears than getTimesWorn().
+    public WearHistory getWearHistory() {
+        return wearHistory;
+    }
+
+    // Sets the history of a garment loaded from a saved closet
+    void restoreWearHistory(WearHistory wearHistory) {
+        this.wearHistory = wearHistory;
+    }
+
+    // Parses a MO/DA/YEAR date and returns it as days since 01/01/1970
+    // Throws an IllegalArgumentException if the date is not valid, or if its year is
+    // not written with four digits, as in 01/01/+10000
+    public static long parseDate(String date) {
+        LocalDate parsed;
+        try {
+            parsed = LocalDate.parse(date.trim(), INPUT_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        if (parsed.getYear() < 0 || parsed.getYear() > 9999) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        return parsed.toEpochDay();
+    }
+
+    // Returns the last worn date in MM/dd/yyyy format, or N/A if the item has never been worn
+    public String getLastWornText() {
+        if (timesWorn == 0) {
+            return "N/A";
+        }
+        return LocalDate.ofEpochDay(lastWorn).format(DISPLAY_FORMAT);
     }
 
     // Prints the garment information in the following format:
     // Name | Type | Price Per Wear | Times Worn | Last Worn | Notes
     // If the item has never been worn, prints the  PPW as the original cost
     public void printGarment() {
-        double ppw;
+        System.out.printf("%-20s | %-12s | %-14.2f | %-10d | %-10s | %-50s\n",
+                name, getType(), getPricePerWear(), timesWorn, getLastWornText(), notes);
+    }
+
+    // Returns the price per wear of the garment, or the original cost if it has never been worn
+    public double getPricePerWear() {
         if (timesWorn != 0) {
-            ppw = pricePerWear();
-        } else {
-            ppw = cost;
+            return pricePerWear();
         }
-        System.out.printf("%-20s | %-12s | %-14.2f | %-10d | %-10s | %-50s\n",
-                name, type, ppw, timesWorn, lastWorn, notes);
+        return cost;
     }
 
     // Calculates and returns the price per wear of the garment
@@ -85,8 +240,13 @@ public class Garment implements Comparable<Garment> {
     //      timesWorn will come first
     // 5) If the two garments have been worn the same number of times, the object
     //      with the highest cost will come first
+    // 6) If the two garments also cost the same, they are ordered by name so that
+    //      different garments never compare as equal
     @Override
     public int compareTo(Garment other) {
+        if (ClosetMetrics.ENABLED) {
+            ClosetMetrics.countComparison();
+        }
         // 1 unworn
         if (this.timesWorn == 0 && other.timesWorn != 0) {
             return -1;
@@ -95,16 +255,21 @@ public class Garment implements Comparable<Garment> {
         }
         // 0 unworn garments
         if (this.timesWorn != 0 && other.timesWorn != 0) {
-            if (!this.lastWorn.equals(other.lastWorn)) {
-                SimpleDateFormat format = new SimpleDateFormat("MM/dd/yyyy");
-                Date thisDate = format.parse(this.lastWorn, new ParsePosition(0));
-                Date otherDate = format.parse(other.lastWorn, new ParsePosition(0));
-                return thisDate.compareTo(otherDate);
+            if (this.lastWorn != other.lastWorn) {
+                return Long.compare(this.lastWorn, other.lastWorn);
             } else if (this.timesWorn != other.timesWorn) {
                 return Integer.compare(this.timesWorn, other.timesWorn);
             }
         }
         // Either tie between 2 items worn the same number of times or 2 unworn garments
-        return Double.compare(this.cost, other.cost);
+        int byCost = Double.compare(this.cost, other.cost);
+        if (byCost != 0) {
+            return byCost;
+        }
+        int byName = this.name.compareToIgnoreCase(other.name);
+        if (byName != 0) {
+            return byName;
+        }
+        return this.name.compareTo(other.name);
     }
 }
@@ -1,22 +1,29 @@
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 // The AccessCloset class allows the user to
 // access their unique closet
 public class Main {
 
     public static Closet userCloset;
-    private static final Scanner console = new Scanner(System.in);
 
 
-    public static void main(String[] args) {
+    // Runs the program. If a file is given, the commands are read from that file
+    // instead of the keyboard, exactly as they would have been typed.
+    public static void main(String[] args) throws IOException {
+        CommandReader console;
+        if (args.length > 0) {
+            console = CommandReader.forFile(Paths.get(args[0]));
+        } else {
+            console = CommandReader.forStandardInput();
+        }
         System.out.println("Hello, welcome to your personal digital closet.");
         System.out.print("Before we begin, please enter your name: ");
         String name = console.nextLine();
-        userCloset = new Closet(name);
+        userCloset = new Closet(name, ClosetJournal.forUser(name), console);
         System.out.println("Thank you " + name + "!");
         System.out.println("Press enter to begin working with your closet.");
         console.nextLine();
         userCloset.mainWindow();
-        console.close();
     }
 }
@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Class that suggests outfits made from the garments of a closet.
+// An outfit is a top and bottoms or a full body item, plus shoes, and optionally
+// outerwear and an accessory. Each garment is scored from 0 to 1 on two things:
+// - how long ago it was last worn, full marks for a year or more or for never worn
+// - its price per wear compared to the most expensive one, so wearing it brings
+//   that price down the most
+// The score of an outfit is the total score of its garments.
+//
+// Since an outfit's score is a sum, an outfit that uses a garment outside the best
+// N of its slot can never be one of the best N outfits, so each slot is cut down to
+// its best N garments first. The outfits are then searched in parallel with
+// fork/join, trying the best garments of each slot first and dropping every branch
+// whose best possible score cannot beat the N-th best outfit found so far.
+public class OutfitRecommender {
+
+    private static final double RECENCY_WEIGHT = 0.6;
+    private static final double PRICE_PER_WEAR_WEIGHT = 0.4;
+    // garments not worn for this many days get full marks for recency
+    private static final int FULL_RECENCY_DAYS = 365;
+    // bases searched by one fork/join task without splitting further
+    private static final int BASES_PER_TASK = 4;
+
+    private final Closet closet;
+
+    // A suggested outfit
+    public static class Outfit {
+        private final Garment[] items;
+        private final double score;
+
+        Outfit(Garment[] items, double score) {
+            this.items = items;
+            this.score = score;
+        }
+
+        // Returns the garments of the outfit
+        public List<Garment> getItems() {
+            return Arrays.asList(items);
+        }
+
+        // Returns the score of the outfit, higher is better
+        public double getScore() {
+            return score;
+        }
+    }
+
+    // A garment, or a top and bottoms worn together, with its score
+    private static class Choice {
+        private final Garment[] items;
+        private final double score;
+
+        Choice(double score, Garment... items) {
+            this.items = items;
+            this.score = score;
+        }
+    }
+
+    // Constructs a recommender for the given closet
+    public OutfitRecommender(Closet closet) {
+        this.closet = closet;
+    }
+
+    // Returns up to count outfits with the highest scores, best first.
+    // Garments worn within the given number of days before today (days since 01/01/1970)
+    // are left out; 0 leaves nothing out.
+    public List<Outfit> recommend(int count, long today, int excludeDays,
+                                  boolean withOuterwear, boolean withAccessory) {
+        double maxPricePerWear = 0;
+        for (String type : closet.getCategories()) {
+            for (Garment item : closet.getCategory(type)) {
+                maxPricePerWear = Math.max(maxPricePerWear, item.getPricePerWear());
+            }
+        }
+        Scorer scorer = new Scorer(today, excludeDays, maxPricePerWear);
+
+        // bases: the best top and bottoms pairs together with the best full body items
+        List<Choice> tops = best(slot("tops"), scorer, count);
+        List<Choice> bottoms = best(slot("bottoms"), scorer, count);
+        List<Choice> bases = best(slot("full body"), scorer, count);
+        Best pairs = new Best(count);
+        for (Choice top : tops) {
+            if (bottoms.isEmpty() || !pairs.canBeat(top.score + bottoms.get(0).score)) {
+                break;
+            }
+            for (Choice bottom : bottoms) {
+                if (!pairs.canBeat(top.score + bottom.score)) {
+                    break;
+                }
+                pairs.offer(new Choice(top.score + bottom.score, top.items[0], bottom.items[0]));
+            }
+        }
+        bases.addAll(pairs.sorted());
+        bases.sort(Comparator.comparingDouble((Choice choice) -> choice.score).reversed());
+
+        List<List<Choice>> slots = new ArrayList<>();
+        slots.add(best(slot("shoes"), scorer, count));
+        if (withOuterwear) {
+            slots.add(best(slot("outerwear"), scorer, count));
+        }
+        if (withAccessory) {
+            slots.add(best(slot("accessories"), scorer, count));
+        }
+        for (List<Choice> slot : slots) {
+            if (slot.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+        // the best score the slots after each one can still add
+        double[] bestAfter = new double[slots.size() + 1];
+        for (int i = slots.size() - 1; i >= 0; i--) {
+            bestAfter[i] = bestAfter[i + 1] + slots.get(i).get(0).score;
+        }
+
+        Best outfits = new Best(count);
+        ForkJoinPool.commonPool().invoke(new Search(bases, 0, bases.size(), slots, bestAfter, outfits));
+        List<Outfit> result = new ArrayList<>();
+        for (Choice choice : outfits.sorted()) {
+            result.add(new Outfit(choice.items, choice.score));
+        }
+        return result;
+    }
+
+    // Returns the garments that can fill the slot of the given category, including those of
+    // its sub-categories, or none if the closet no longer has the category
+    private Collection<Garment> slot(String type) {
+        return closet.hasCategory(type) ? closet.garmentsWithin(type) : List.of();
+    }
+
+    // Returns the count garments with the highest scores, best first,
+    // leaving out the ones worn too recently
+    private static List<Choice> best(Collection<Garment> items, Scorer scorer, int count) {
+        Best best = new Best(count);
+        for (Garment item : items) {
+            if (!scorer.excluded(item)) {
+                double score = scorer.score(item);
+                if (best.canBeat(score)) {
+                    best.offer(new Choice(score, item));
+                }
+            }
+        }
+        return best.sorted();
+    }
+
+    // Searches the outfits built on the bases from start to end
+    private static class Search extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Choice> bases;
+        private final int start;
+        private final int end;
+        private final List<List<Choice>> slots;
+        private final double[] bestAfter;
+        private final Best outfits;
+
+        Search(List<Choice> bases, int start, int end, List<List<Choice>> slots,
+               double[] bestAfter, Best outfits) {
+            this.bases = bases;
+            this.start = start;
+            this.end = end;
+            this.slots = slots;
+            this.bestAfter = bestAfter;
+            this.outfits = outfits;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > BASES_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Search(bases, start, middle, slots, bestAfter, outfits),
+                        new Search(bases, middle, end, slots, bestAfter, outfits));
+                return;
+            }
+            Garment[] chosen = new Garment[slots.size()];
+            for (int i = start; i < end; i++) {
+                Choice base = bases.get(i);
+                // bases are sorted, so no later base can do better either
+                if (!outfits.canBeat(base.score + bestAfter[0])) {
+                    return;
+                }
+                search(base, 0, base.score, chosen);
+            }
+        }
+
+        // Tries every garment of the given slot and the slots after it
+        private void search(Choice base, int slot, double score, Garment[] chosen) {
+            if (slot == slots.size()) {
+                Garment[] items = Arrays.copyOf(base.items, base.items.length + chosen.length);
+                System.arraycopy(chosen, 0, items, base.items.length, chosen.length);
+                outfits.offer(new Choice(score, items));
+                return;
+            }
+            for (Choice choice : slots.get(slot)) {
+                // choices are sorted, so once one cannot lead to a better outfit none can
+                if (!outfits.canBeat(score + choice.score + bestAfter[slot + 1])) {
+                    return;
+                }
+                chosen[slot] = choice.items[0];
+                search(base, slot + 1, score + choice.score, chosen);
+            }
+        }
+    }
+
+    // Scores garments against today's date and the most expensive price per wear
+    private static class Scorer {
+        private final long today;
+        private final int excludeDays;
+        private final double maxPricePerWear;
+
+        Scorer(long today, int excludeDays, double maxPricePerWear) {
+            this.today = today;
+            this.excludeDays = excludeDays;
+            this.maxPricePerWear = maxPricePerWear;
+        }
+
+        // Returns true if the garment was worn within the excluded days
+        boolean excluded(Garment item) {
+            return excludeDays > 0 && item.getTimesWorn() > 0 && today - item.getLastWorn() < excludeDays;
+        }
+
+        double score(Garment item) {
+            double recency = 1;
+            if (item.getTimesWorn() > 0) {
+                long days = Math.max(0, today - item.getLastWorn());
+                recency = Math.min(days, FULL_RECENCY_DAYS) / (double) FULL_RECENCY_DAYS;
+            }
+            double pricePerWear = maxPricePerWear > 0 ? Math.max(0, item.getPricePerWear()) / maxPricePerWear : 0;
+            return RECENCY_WEIGHT * recency + PRICE_PER_WEAR_WEIGHT * pricePerWear;
+        }
+    }
+
+    // Keeps the count best choices offered to it; safe to share between threads
+    private static class Best {
+        private final int count;
+        // lowest score first, so the worst kept choice can be replaced
+        private final PriorityQueue<Choice> kept;
+        // score a choice must beat to be kept once count choices are kept
+        private volatile double threshold = Double.NEGATIVE_INFINITY;
+
+        Best(int count) {
+            this.count = count;
+            this.kept = new PriorityQueue<>(Comparator.comparingDouble((Choice choice) -> choice.score));
+        }
+
+        // Returns true if a choice with the given score would be kept
+        boolean canBeat(double score) {
+            return count > 0 && score > threshold;
+        }
+
+        synchronized void offer(Choice choice) {
+            if (!canBeat(choice.score)) {
+                return;
+            }
+            kept.add(choice);
+            if (kept.size() > count) {
+                kept.poll();
+            }
+            if (kept.size() == count) {
+                threshold = kept.peek().score;
+            }
+        }
+
+        // Returns the kept choices, best first
+        synchronized List<Choice> sorted() {
+            List<Choice> sorted = new ArrayList<>(kept);
+            sorted.sort(Comparator.comparingDouble((Choice choice) -> choice.score).reversed());
+            return sorted;
+        }
+    }
+}
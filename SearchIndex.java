@@ -0,0 +1,307 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Class that finds garments by part of their name or notes without looking at every garment.
+// Every garment is given a slot number, and for every piece of one, two or three letters
+// of a name or notes the index keeps a list of the slots of the garments containing it.
+// A search only checks the garments in the shortest list among the three-letter pieces
+// (trigrams) of the search text, or in the list of the whole text if it is shorter.
+// Garments still in the closet's snapshot file (see ClosetSnapshot.StoredGarments) use
+// their number in the file as their slot. Their names and notes are read from the file,
+// and a garment is only built when a search finds it, so the index does not keep them
+// in memory. Every other garment gets a slot after those.
+// Not case sensitive.
+public class SearchIndex {
+
+    // start removing stale slots from the lists once this many garments have been removed
+    private static final int MIN_REBUILD_REMOVALS = 1024;
+    // the longest pieces of text kept in the lists
+    private static final int GRAM = 3;
+
+    // the categories of the closet, used to look up the type of a search
+    private final CategoryRegistry categories;
+    // the garments in the snapshot file by their first number, the slots they take, and
+    // the numbers of those in the index
+    private final ClosetSnapshot.StoredGarments[] stored;
+    private final int storedSlots;
+    private final BitSet storedRows;
+    private int storedCount;
+    // garment in each slot from storedSlots on, or null if the slot is free
+    private Garment[] slots;
+    private final Map<Garment, Integer> slotOf;
+    private final List<Integer> freeSlots;
+    private final Map<Long, Postings> names;
+    private final Map<Long, Postings> notes;
+    private int removals;
+    // used to skip garments already checked by the current search
+    private int[] checked;
+    private int searchNumber;
+
+    // Constructs an index of a closet with the given categories, holding the given
+    // garments of its snapshot file that are still in it. Other garments are added.
+    public SearchIndex(CategoryRegistry categories, List<ClosetSnapshot.StoredGarments> stored) {
+        this.categories = categories;
+        this.stored = stored.toArray(new ClosetSnapshot.StoredGarments[0]);
+        Arrays.sort(this.stored, Comparator.comparingInt(ClosetSnapshot.StoredGarments::firstRow));
+        int end = 0;
+        for (ClosetSnapshot.StoredGarments garments : this.stored) {
+            end = Math.max(end, garments.endRow());
+        }
+        storedSlots = end;
+        storedRows = new BitSet(end);
+        slots = new Garment[1024];
+        slotOf = new HashMap<>();
+        freeSlots = new ArrayList<>();
+        names = new HashMap<>();
+        notes = new HashMap<>();
+        checked = new int[storedSlots + slots.length];
+        for (ClosetSnapshot.StoredGarments garments : this.stored) {
+            for (int row = garments.firstRow(); row < garments.endRow(); row++) {
+                if (garments.holds(row)) {
+                    storedRows.set(row);
+                    storedCount++;
+                    addGrams(names, garments.name(row), row);
+                    addGrams(notes, garments.notes(row), row);
+                }
+            }
+        }
+        trim();
+    }
+
+    // Adds the given garment to the index
+    public void add(Garment item) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.remove(freeSlots.size() - 1);
+        } else {
+            slot = storedSlots + slotOf.size();
+            if (slot - storedSlots == slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+                checked = Arrays.copyOf(checked, storedSlots + slots.length);
+            }
+        }
+        slots[slot - storedSlots] = item;
+        slotOf.put(item, slot);
+        addGrams(names, item.getName(), slot);
+        addGrams(notes, item.getNotes(), slot);
+    }
+
+    // Removes the given garment from the index.
+    // Its slot stays in the lists until enough garments have been removed to
+    // make cleaning them up worthwhile; searches check the text of every candidate anyway.
+    public void remove(Garment item) {
+        Integer slot = slotOf.remove(item);
+        if (slot != null) {
+            slots[slot - storedSlots] = null;
+            freeSlots.add(slot);
+        } else {
+            int row = storedRowOf(item);
+            if (row < 0 || !storedRows.get(row)) {
+                return;
+            }
+            storedRows.clear(row);
+            storedCount--;
+        }
+        removals++;
+        if (removals >= Math.max(MIN_REBUILD_REMOVALS, slotOf.size() + storedCount)) {
+            rebuild();
+        }
+    }
+
+    // Returns the garments of the given type (or of every type if the type is null) whose
+    // name, or notes if inNotes is true, contain the given text, in the closet's order.
+    // If wordStart is true, the text must be found at the start of a word.
+    public List<Garment> search(String text, boolean inNotes, boolean wordStart, String type) {
+        Map<Long, Postings> index = inNotes ? notes : names;
+        searchNumber++;
+        List<Garment> found = new ArrayList<>();
+        CategoryRegistry.Category category = type == null ? null : categories.get(type);
+        if (type != null && category == null) {
+            return found;
+        }
+        if (text.isEmpty()) {
+            for (Garment item : slotOf.keySet()) {
+                check(item, text, inNotes, wordStart, category, found);
+            }
+            for (int row = storedRows.nextSetBit(0); row >= 0; row = storedRows.nextSetBit(row + 1)) {
+                checkStored(row, text, inNotes, wordStart, category, found);
+            }
+            return sorted(found);
+        }
+        Postings shortest = null;
+        int length = Math.min(GRAM, text.length());
+        for (int i = 0; i + length <= text.length(); i++) {
+            Postings postings = index.get(gram(text, i, length));
+            if (postings == null) {
+                return found;
+            }
+            if (shortest == null || postings.size < shortest.size) {
+                shortest = postings;
+            }
+        }
+        for (int i = 0; i < shortest.size; i++) {
+            int slot = shortest.slots[i];
+            if (checked[slot] == searchNumber) {
+                continue;
+            }
+            checked[slot] = searchNumber;
+            if (slot < storedSlots) {
+                if (storedRows.get(slot)) {
+                    checkStored(slot, text, inNotes, wordStart, category, found);
+                }
+            } else if (slots[slot - storedSlots] != null) {
+                check(slots[slot - storedSlots], text, inNotes, wordStart, category, found);
+            }
+        }
+        return sorted(found);
+    }
+
+    // Returns the found garments in the closet's order
+    private static List<Garment> sorted(List<Garment> found) {
+        Garment[] sorted = found.toArray(new Garment[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    // Adds the garment to the found list if it matches the search.
+    // A null category matches every category, any other only itself and its sub-categories.
+    private static void check(Garment item, String text, boolean inNotes, boolean wordStart,
+                              CategoryRegistry.Category category, List<Garment> found) {
+        if (category != null && !item.getCategory().isWithin(category)) {
+            return;
+        }
+        String itemText = inNotes ? item.getNotes() : item.getName();
+        if (contains(itemText, text, wordStart)) {
+            found.add(item);
+        }
+    }
+
+    // Adds the garment with the given number in the snapshot file to the found list if
+    // it matches the search, only building it if its text matches
+    private void checkStored(int row, String text, boolean inNotes, boolean wordStart,
+                             CategoryRegistry.Category category, List<Garment> found) {
+        ClosetSnapshot.StoredGarments garments = storedOf(row);
+        if (contains(inNotes ? garments.notes(row) : garments.name(row), text, wordStart)) {
+            Garment item = garments.garment(row);
+            if (category == null || item.getCategory().isWithin(category)) {
+                found.add(item);
+            }
+        }
+    }
+
+    // Returns the garments of the snapshot file holding the given number
+    private ClosetSnapshot.StoredGarments storedOf(int row) {
+        int low = 0;
+        int high = stored.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (stored[middle].firstRow() <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return stored[low];
+    }
+
+    // Returns the number in the snapshot file of the given garment, if it was built from
+    // it, or -1
+    private int storedRowOf(Garment item) {
+        for (ClosetSnapshot.StoredGarments garments : stored) {
+            int row = garments.rowOf(item);
+            if (row >= 0) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // Returns true if the text contains the given part, ignoring case.
+    // If wordStart is true, the part must be found at the start of a word.
+    private static boolean contains(String text, String part, boolean wordStart) {
+        for (int i = 0; i + part.length() <= text.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())
+                    && (!wordStart || i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds the slot to the list of every distinct piece of one, two or three letters of the text
+    private static void addGrams(Map<Long, Postings> index, String text, int slot) {
+        for (int length = 1; length <= GRAM; length++) {
+            for (int i = 0; i + length <= text.length(); i++) {
+                Postings postings = index.computeIfAbsent(gram(text, i, length), key -> new Postings());
+                // the same piece can appear more than once in a text
+                if (postings.size == 0 || postings.slots[postings.size - 1] != slot) {
+                    postings.add(slot);
+                }
+            }
+        }
+    }
+
+    // Returns the given number of characters of the text starting at i, in lower case,
+    // packed into a number along with the number of characters, so pieces of different
+    // lengths never share a list
+    private static long gram(String text, int i, int length) {
+        long gram = length;
+        for (int j = i; j < i + length; j++) {
+            gram = (gram << 16) | Character.toLowerCase(text.charAt(j));
+        }
+        return gram;
+    }
+
+    // Rebuilds the lists from the garments still in the index
+    private void rebuild() {
+        names.clear();
+        notes.clear();
+        for (int row = storedRows.nextSetBit(0); row >= 0; row = storedRows.nextSetBit(row + 1)) {
+            ClosetSnapshot.StoredGarments garments = storedOf(row);
+            addGrams(names, garments.name(row), row);
+            addGrams(notes, garments.notes(row), row);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            Garment item = slots[i];
+            if (item != null) {
+                addGrams(names, item.getName(), storedSlots + i);
+                addGrams(notes, item.getNotes(), storedSlots + i);
+            }
+        }
+        trim();
+        removals = 0;
+    }
+
+    // Frees the unused room at the end of every list
+    private void trim() {
+        for (Postings postings : names.values()) {
+            postings.trim();
+        }
+        for (Postings postings : notes.values()) {
+            postings.trim();
+        }
+    }
+
+    // A growable list of slot numbers
+    private static class Postings {
+        private int[] slots = new int[4];
+        private int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size] = slot;
+            size++;
+        }
+
+        void trim() {
+            slots = Arrays.copyOf(slots, Math.max(1, size));
+        }
+    }
+}
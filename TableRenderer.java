@@ -0,0 +1,164 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Class that prints garments as rows of the closet table.
+// Rows are formatted by hand into a reusable buffer, which is only written out
+// once it holds a large chunk of text, instead of calling printf for every row.
+// The columns are the same as Garment.printGarment:
+// Name | Type | Price Per Wear | Times Worn | Last Worn | Notes
+public class TableRenderer {
+
+    // chunk size used when printing to the screen
+    private static final int CONSOLE_CHUNK_SIZE = 1 << 16;
+    // chunk size used when printing to a file, or when the output is redirected
+    private static final int FILE_CHUNK_SIZE = 1 << 20;
+    private static final int HEADER_WIDTH = 131;
+
+    private final Appendable out;
+    private final int chunkSize;
+    private final StringBuilder buffer;
+
+    // Constructs a renderer that writes to the given output in chunks of the given size
+    public TableRenderer(Appendable out, int chunkSize) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.buffer = new StringBuilder(chunkSize + 256);
+    }
+
+    // Constructs a renderer that prints to the screen.
+    // If the output has been redirected to a file or pipe, larger chunks are used.
+    public static TableRenderer forConsole() {
+        if (System.console() == null) {
+            return new TableRenderer(System.out, FILE_CHUNK_SIZE);
+        }
+        return new TableRenderer(System.out, CONSOLE_CHUNK_SIZE);
+    }
+
+    // Constructs a renderer that streams to the given file or stream
+    public static TableRenderer forFile(Appendable out) {
+        return new TableRenderer(out, FILE_CHUNK_SIZE);
+    }
+
+    // Adds the top of the table
+    public void header() {
+        pad("Name", 20);
+        buffer.append(" | ");
+        pad("Category", 12);
+        buffer.append(" | ");
+        pad("Price Per Wear", 14);
+        buffer.append(" | ");
+        pad("Times Worn", 10);
+        buffer.append(" | ");
+        pad("Last Worn", 10);
+        buffer.append(" | ");
+        pad("Notes", 50);
+        buffer.append(System.lineSeparator());
+        for (int i = HEADER_WIDTH; i > 0; i--) {
+            buffer.append('-');
+        }
+        buffer.append(' ').append(System.lineSeparator());
+        writeIfFull();
+    }
+
+    // Adds a row for the given garment
+    public void row(Garment item) {
+        pad(item.getName(), 20);
+        buffer.append(" | ");
+        pad(item.getType(), 12);
+        buffer.append(" | ");
+        int start = buffer.length();
+        appendTwoDecimals(item.getPricePerWear());
+        padFrom(start, 14);
+        buffer.append(" | ");
+        start = buffer.length();
+        buffer.append(item.getTimesWorn());
+        padFrom(start, 10);
+        buffer.append(" | ");
+        pad(item.getLastWornText(), 10);
+        buffer.append(" | ");
+        pad(item.getNotes(), 50);
+        buffer.append(System.lineSeparator());
+        writeIfFull();
+    }
+
+    // Adds a line of text
+    public void line(String text) {
+        buffer.append(text).append(System.lineSeparator());
+        writeIfFull();
+    }
+
+    // Writes out everything added so far
+    public void flush() {
+        write();
+        if (out instanceof Flushable) {
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Adds the text, followed by spaces up to the given width
+    private void pad(String text, int width) {
+        int start = buffer.length();
+        buffer.append(text);
+        padFrom(start, width);
+    }
+
+    // Adds spaces until the text added since start is the given width
+    private void padFrom(int start, int width) {
+        for (int i = buffer.length() - start; i < width; i++) {
+            buffer.append(' ');
+        }
+    }
+
+    // Adds the value rounded to 2 decimal places, the same way as %.2f
+    private void appendTwoDecimals(double value) {
+        double scaled = Math.abs(value) * 100;
+        if (Double.isNaN(value) || Double.isInfinite(value) || scaled >= 1e15
+                || Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6) {
+            // too large, or too close to halfway between two cents to round safely by hand
+            buffer.append(formatExactly(value));
+            return;
+        }
+        long cents = Math.round(scaled);
+        if (Math.copySign(1.0, value) < 0) {
+            buffer.append('-');
+        }
+        buffer.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            buffer.append('0');
+        }
+        buffer.append(fraction);
+    }
+
+    // Rounds the value the same way as %.2f, using its shortest decimal form
+    private static String formatExactly(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return String.format("%.2f", value);
+        }
+        return new BigDecimal(Double.toString(value)).setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private void writeIfFull() {
+        if (buffer.length() >= chunkSize) {
+            write();
+        }
+    }
+
+    private void write() {
+        if (buffer.length() > 0) {
+            try {
+                out.append(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.setLength(0);
+        }
+    }
+}
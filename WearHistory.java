@@ -0,0 +1,168 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+// Class that keeps every day a garment was worn, in a byte or two per wear.
+// Days are kept in the order they were logged. Each is stored as its difference from
+// the day logged before it (the first as its difference from 01/01/1970), zigzag
+// encoded so days earlier than the one before also stay small, and written 7 bits
+// per byte with the top bit set on every byte but the last. Wears logged within
+// two months of each other, the usual case, take a single byte.
+public class WearHistory {
+
+    private byte[] data;
+    // number of bytes of data in use
+    private int size;
+    private int count;
+    private long lastDay;
+
+    // Constructs an empty history
+    public WearHistory() {
+        data = new byte[8];
+    }
+
+    // Constructs a history from the bytes of another history, such as ones loaded
+    // from a saved closet. The array is used as it is, not copied.
+    WearHistory(byte[] data, int count) {
+        this.data = data;
+        this.size = data.length;
+        this.count = count;
+        forEachDay(day -> lastDay = day);
+    }
+
+    // Adds a wear on the given day (days since 01/01/1970)
+    public void add(long day) {
+        long delta = day - lastDay;
+        long zigzag = (delta << 1) ^ (delta >> 63);
+        int length = (70 - Long.numberOfLeadingZeros(zigzag | 1)) / 7;
+        if (size + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(size + length, size + (size >> 1)));
+        }
+        while ((zigzag & ~0x7FL) != 0) {
+            data[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        data[size++] = (byte) zigzag;
+        count++;
+        lastDay = day;
+    }
+
+    // Removes the wear logged last, as when it is undone
+    public void removeLast() {
+        // the last wear is only found by reading every wear before it
+        long day = 0;
+        long previousDay = 0;
+        int lastStart = 0;
+        int i = 0;
+        while (i < size) {
+            lastStart = i;
+            previousDay = day;
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[i++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            day += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        size = lastStart;
+        count--;
+        lastDay = previousDay;
+    }
+
+    // Returns a copy of the history that can be changed without changing this one
+    public WearHistory copy() {
+        return new WearHistory(Arrays.copyOf(data, size), count);
+    }
+
+    // Returns the number of wears in the history
+    public int getCount() {
+        return count;
+    }
+
+    // Returns every day in the history, in the order they were logged
+    public long[] getDays() {
+        long[] days = new long[count];
+        int[] i = {0};
+        forEachDay(day -> days[i[0]++] = day);
+        return days;
+    }
+
+    // Returns the number of wears between the given days, including both
+    public int countBetween(long firstDay, long lastDay) {
+        int[] found = {0};
+        forEachDay(day -> {
+            if (day >= firstDay && day <= lastDay) {
+                found[0]++;
+            }
+        });
+        return found[0];
+    }
+
+    // Adds the wears between the given days, including both, to the counts of their month.
+    // counts[0] is the month of firstDay, counts[1] the month after it, and so on.
+    public void countByMonth(int[] counts, long firstDay, long lastDay) {
+        int firstMonth = monthOf(firstDay);
+        forEachDay(day -> {
+            if (day >= firstDay && day <= lastDay) {
+                counts[monthOf(day) - firstMonth]++;
+            }
+        });
+    }
+
+    // Adds the wears between the given days, including both, to the counts of their week.
+    // counts[0] is the 7 days starting at firstDay, counts[1] the 7 days after them, and so on.
+    public void countByWeek(int[] counts, long firstDay, long lastDay) {
+        forEachDay(day -> {
+            if (day >= firstDay && day <= lastDay) {
+                counts[(int) ((day - firstDay) / 7)]++;
+            }
+        });
+    }
+
+    // Returns the number of bytes the history takes
+    public int getByteSize() {
+        return size;
+    }
+
+    // Returns the array holding the history, whose first getByteSize() bytes can be
+    // given back to the constructor. The array is not copied and must not be changed.
+    byte[] getData() {
+        return data;
+    }
+
+    // Returns the month of the given day (days since 01/01/1970) as year * 12 + month - 1,
+    // worked out without creating a LocalDate.
+    // Throws an ArithmeticException if the month does not fit in an int.
+    public static int monthOf(long day) {
+        // Howard Hinnant's civil_from_days algorithm, which counts years from March
+        long shifted = day + 719468;
+        long era = Math.floorDiv(shifted, 146097);
+        long dayOfEra = shifted - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        long month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return Math.toIntExact(Math.addExact(Math.multiplyExact(year, 12), month - 1));
+    }
+
+    // Calls the action with every day in the history, in the order they were logged
+    private void forEachDay(LongConsumer action) {
+        long day = 0;
+        int i = 0;
+        while (i < size) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[i++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            day += (zigzag >>> 1) ^ -(zigzag & 1);
+            action.accept(day);
+        }
+    }
+}
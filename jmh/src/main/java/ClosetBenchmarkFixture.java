@@ -0,0 +1,124 @@
+import closet.benchmark.ClosetFixture;
+
+import java.util.List;
+import java.util.Random;
+
+// The closet the JMH benchmarks run against, see closet.benchmark.ClosetFixture.
+// It is in the default package so it can call the closet's package-private methods.
+public class ClosetBenchmarkFixture implements ClosetFixture {
+
+    private static final String[] WORDS = {"black", "white", "linen", "shirt", "denim", "jacket", "wool",
+            "red", "boots", "silk", "scarf", "vintage", "cotton", "navy", "striped", "leather"};
+    private static final String[] QUERIES = {"linen", "ck wo", "vintage sc", "1234", "ather"};
+    // number of random picks, a power of two so the i-th pick is found with a mask
+    private static final int PICKS = 8192;
+
+    private Closet closet;
+    private List<String> types;
+    private Garment[] items;
+    private int[] picks;
+    private String[] dates;
+
+    @Override
+    public void build(int size) {
+        Random random = new Random(size);
+        closet = new Closet("benchmark", null, null);
+        types = closet.getCategories();
+        items = new Garment[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = new Garment(randomName(random, i), types.get(i % types.size()),
+                    random.nextInt(20000) / 100.0, randomName(random, i));
+            closet.addGarment(items[i]);
+        }
+        dates = new String[4096];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = (1 + random.nextInt(12)) + "/" + (1 + random.nextInt(28)) + "/" + (2015 + random.nextInt(10));
+        }
+        for (int i = 0; i < size; i += 2) {
+            closet.wearGarment(items[i].getType(), items[i], dates[i % dates.length]);
+        }
+        picks = new int[PICKS];
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = random.nextInt(size);
+        }
+    }
+
+    @Override
+    public int compare(int i) {
+        return pick(i).compareTo(pick(i + 1));
+    }
+
+    @Override
+    public boolean lookup(int i) {
+        Garment item = pick(i);
+        return closet.findGarment(item.getType(), item.getName()) == item;
+    }
+
+    @Override
+    public int logWear(int i) {
+        Garment item = pick(i);
+        closet.wearGarment(item.getType(), item, dates[i & (dates.length - 1)]);
+        return item.getTimesWorn();
+    }
+
+    @Override
+    public int searchNames(int i) {
+        return closet.searchGarments(QUERIES[i % QUERIES.length], false, false, null).size();
+    }
+
+    @Override
+    public int searchNotesOneType(int i) {
+        return closet.searchGarments(QUERIES[i % QUERIES.length], true, true, "tops").size();
+    }
+
+    @Override
+    public int unworn(int i) {
+        return closet.unwornGarments(types.get(i % types.size())).size();
+    }
+
+    @Override
+    public int leastRecentFive(int i) {
+        return closet.leastRecentlyWorn(types.get(i % types.size()), 5).size();
+    }
+
+    @Override
+    public long renderCloset() {
+        CountingAppendable out = new CountingAppendable();
+        TableRenderer table = TableRenderer.forFile(out);
+        closet.printCloset(table);
+        table.flush();
+        return out.count;
+    }
+
+    private Garment pick(int i) {
+        return items[picks[i & (PICKS - 1)]];
+    }
+
+    // Returns a name made of two random words followed by a number
+    private static String randomName(Random random, int number) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + number;
+    }
+
+    // Output that only counts the characters written to it
+    private static class CountingAppendable implements Appendable {
+        private long count;
+
+        @Override
+        public Appendable append(CharSequence text) {
+            count += text.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) {
+            count += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            count++;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package closet.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures the hot paths of Closet and Garment on closets of 1k to 1M garments.
+// Run with gradle :jmh:jmh, which also measures the bytes allocated per operation;
+// see jmh/build.gradle for how to compare the results with the saved baseline.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosetBenchmarks {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private ClosetFixture closet;
+    // which of the fixture's random picks the next operation uses
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        closet = (ClosetFixture) Class.forName("ClosetBenchmarkFixture").getDeclaredConstructor().newInstance();
+        closet.build(size);
+    }
+
+    @Benchmark
+    public int compare() {
+        return closet.compare(next++);
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        return closet.lookup(next++);
+    }
+
+    @Benchmark
+    public int logWear() {
+        return closet.logWear(next++);
+    }
+
+    @Benchmark
+    public int searchNames() {
+        return closet.searchNames(next++);
+    }
+
+    @Benchmark
+    public int searchNotesOneType() {
+        return closet.searchNotesOneType(next++);
+    }
+
+    @Benchmark
+    public int unworn() {
+        return closet.unworn(next++);
+    }
+
+    @Benchmark
+    public int leastRecentFive() {
+        return closet.leastRecentFive(next++);
+    }
+
+    @Benchmark
+    public long renderCloset() {
+        return closet.renderCloset();
+    }
+}
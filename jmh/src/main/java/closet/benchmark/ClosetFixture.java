@@ -0,0 +1,36 @@
+package closet.benchmark;
+
+// A closet filled with garments for the benchmarks to run against.
+// JMH only runs benchmarks in a named package, and a class in a named package cannot
+// use the closet's classes, which are in the default package. So the benchmarks reach
+// the closet through this interface, implemented by ClosetBenchmarkFixture in the
+// default package and loaded by name.
+public interface ClosetFixture {
+
+    // Fills the closet with the given number of garments, about half of them worn
+    void build(int size);
+
+    // Compares the i-th pair of randomly picked garments
+    int compare(int i);
+
+    // Finds the i-th randomly picked garment by its type and name
+    boolean lookup(int i);
+
+    // Logs a wear of the i-th randomly picked garment on a random date
+    int logWear(int i);
+
+    // Searches the names of every category for the i-th query
+    int searchNames(int i);
+
+    // Searches the start of the words in the notes of one category for the i-th query
+    int searchNotesOneType(int i);
+
+    // Counts the unworn garments of the i-th category
+    int unworn(int i);
+
+    // Returns the five garments worn least recently of the i-th category
+    int leastRecentFive(int i);
+
+    // Renders the table of every garment and returns the number of characters written
+    long renderCloset();
+}
@@ -0,0 +1,86 @@
+package closet.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Compares two CSV result files written by JMH, such as the saved baseline and the
+// last run, and prints the change of every score found in both. Changes bigger than
+// 10% are marked, so regressions show up between versions.
+//
+// Usage: java closet.benchmark.CompareResults baseline.csv results.csv
+public class CompareResults {
+
+    // changes bigger than this fraction are marked as regressions or improvements
+    private static final double NOTABLE_CHANGE = 0.10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java closet.benchmark.CompareResults baseline.csv results.csv");
+            return;
+        }
+        Path baselineFile = Paths.get(args[0]);
+        if (!Files.exists(baselineFile)) {
+            System.out.println("There is no baseline at " + baselineFile + " to compare with.");
+            return;
+        }
+        Map<String, Double> baseline = read(baselineFile);
+        Map<String, Double> results = read(Paths.get(args[1]));
+        System.out.printf("%-52s %14s %14s %16s%n", "Benchmark", "baseline", "now", "change");
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double base = baseline.get(result.getKey());
+            String change = "";
+            if (base != null && base > 0) {
+                double ratio = result.getValue() / base - 1;
+                change = String.format(Locale.ROOT, "%+.1f%%", ratio * 100);
+                if (ratio > NOTABLE_CHANGE) {
+                    change += " WORSE";
+                } else if (ratio < -NOTABLE_CHANGE) {
+                    change += " better";
+                }
+            }
+            System.out.printf(Locale.ROOT, "%-52s %14s %14.2f %16s%n", result.getKey(),
+                    base == null ? "-" : String.format(Locale.ROOT, "%.2f", base), result.getValue(), change);
+        }
+    }
+
+    // Reads the time and the bytes allocated per operation of every benchmark in a JMH
+    // CSV file, keyed by the benchmark's name, the unit and the values of its parameters.
+    // The other results of the allocation profiler vary with the run and are left out.
+    private static Map<String, Double> read(Path file) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] fields = line.split(",");
+            if (fields.length < 7) {
+                continue;
+            }
+            String name = unquote(fields[0]);
+            if (name.indexOf(':') >= 0 && !name.endsWith(":gc.alloc.rate.norm")) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.indexOf(':') < 0
+                    ? name.length() : name.indexOf(':')) + 1));
+            key.append(" (").append(unquote(fields[6])).append(')');
+            for (int i = 7; i < fields.length; i++) {
+                key.append(" @").append(unquote(fields[i]));
+            }
+            scores.put(key.toString(), Double.parseDouble(unquote(fields[4])));
+        }
+        return scores;
+    }
+
+    private static String unquote(String field) {
+        String trimmed = field.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+}